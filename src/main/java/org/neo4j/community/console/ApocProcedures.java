@@ -0,0 +1,141 @@
+package org.neo4j.community.console;
+
+import apoc.coll.Coll;
+import apoc.convert.Json;
+import apoc.create.Create;
+import apoc.index.FulltextIndex;
+import apoc.load.LoadJson;
+import apoc.load.Xml;
+import apoc.meta.Meta;
+import apoc.path.PathExplorer;
+import apoc.refactor.GraphRefactoring;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.internal.kernel.api.exceptions.KernelException;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.procedure.Procedure;
+import org.neo4j.procedure.UserFunction;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Registers the APOC procedures and functions of the console in a database.
+ * <p>
+ * The compiled procedures can't be shared between databases, they are bound to the database they were compiled for
+ * (node and relationship arguments are converted with its proxies, the injected log is its log).
+ * So what is shared per JVM are the descriptors of the classes: if they contain procedures and/or functions and their names.
+ * Rarely used classes are only registered when a statement mentions one of their procedures or functions for the first time.
+ */
+class ApocProcedures {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(ApocProcedures.class);
+
+    static final boolean LAZY = Util.setting("console.procedures.lazy", true);
+
+    static final List<Class<?>> EAGER_CLASSES = asList(Coll.class, apoc.text.Strings.class, apoc.map.Maps.class, Json.class, Create.class,
+            apoc.date.Date.class, apoc.lock.Lock.class, LoadJson.class, PathExplorer.class, Meta.class, GraphRefactoring.class);
+    static final List<Class<?>> LAZY_CLASSES = asList(apoc.spatial.Geocode.class, Xml.class, FulltextIndex.class);
+
+    private static final Map<Class<?>, Descriptor> descriptors = new ConcurrentHashMap<>();
+    // the lazily registered classes of the databases we registered the procedures in, other databases are left alone
+    private static final Map<GraphDatabaseService, Set<Class<?>>> lazilyRegistered = Collections.synchronizedMap(new WeakHashMap<>());
+
+    static void register(GraphDatabaseService db) {
+        Procedures procedures = procedures(db);
+        for (Class<?> type : EAGER_CLASSES) {
+            register(procedures, type);
+        }
+        if (LAZY) {
+            lazilyRegistered.put(db, new HashSet<>());
+            return;
+        }
+        for (Class<?> type : LAZY_CLASSES) {
+            register(procedures, type);
+        }
+    }
+
+    /**
+     * Registers the lazily registered classes the statement uses, if they are not registered in the database yet.
+     */
+    static void registerUsed(GraphDatabaseService db, String statement) {
+        if (!LAZY || statement == null || !containsIgnoreCase(statement, "apoc.")) return;
+        String lowerCase = statement.toLowerCase();
+        for (Class<?> type : LAZY_CLASSES) {
+            if (!descriptor(type).isUsedBy(lowerCase)) continue;
+            Set<Class<?>> registered = lazilyRegistered.get(db);
+            if (registered == null) return;
+            synchronized (registered) {
+                if (registered.contains(type)) continue;
+                LOG.warn("Registering " + type.getName() + " on first use");
+                register(procedures(db), type);
+                registered.add(type);
+            }
+        }
+    }
+
+    private static boolean containsIgnoreCase(String text, String part) {
+        for (int i = 0; i <= text.length() - part.length(); i++) {
+            if (text.regionMatches(true, i, part, 0, part.length())) return true;
+        }
+        return false;
+    }
+
+    private static Procedures procedures(GraphDatabaseService db) {
+        return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Procedures.class);
+    }
+
+    private static void register(Procedures procedures, Class<?> type) {
+        Descriptor descriptor = descriptor(type);
+        try {
+            if (descriptor.procedures) procedures.registerProcedure(type);
+            if (descriptor.functions) procedures.registerFunction(type);
+        } catch (KernelException e) {
+            throw new RuntimeException("Error registering " + type, e);
+        }
+    }
+
+    static Descriptor descriptor(Class<?> type) {
+        return descriptors.computeIfAbsent(type, Descriptor::new);
+    }
+
+    static class Descriptor {
+        final boolean procedures;
+        final boolean functions;
+        final Set<String> names = new HashSet<>();
+
+        Descriptor(Class<?> type) {
+            boolean procedures = false, functions = false;
+            for (Method method : type.getDeclaredMethods()) {
+                Procedure procedure = method.getAnnotation(Procedure.class);
+                if (procedure != null) {
+                    procedures = true;
+                    names.add(name(type, method, procedure.name().isEmpty() ? procedure.value() : procedure.name()));
+                }
+                UserFunction function = method.getAnnotation(UserFunction.class);
+                if (function != null) {
+                    functions = true;
+                    names.add(name(type, method, function.name().isEmpty() ? function.value() : function.name()));
+                }
+            }
+            this.procedures = procedures;
+            this.functions = functions;
+        }
+
+        private static String name(Class<?> type, Method method, String name) {
+            String result = name.isEmpty() ? type.getPackage().getName() + "." + method.getName() : name;
+            return result.toLowerCase();
+        }
+
+        boolean isUsedBy(String lowerCaseStatement) {
+            for (String name : names) {
+                if (lowerCaseStatement.contains(name)) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -8,7 +8,6 @@ import static spark.Spark.post;
 import java.util.Map;
 
 import com.google.gson.GsonBuilder;
-import org.neo4j.kernel.lifecycle.LifecycleException;
 import org.slf4j.Logger;
 
 import spark.Request;
@@ -33,16 +32,7 @@ public class BackendApplication implements SparkApplication {
     public void init() {
         SessionService.setDatabaseInfo(ConsoleFilter.getDatabase());
         consoleService = new ConsoleService();
-        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-            @Override
-            public void uncaughtException(Thread thread, Throwable throwable) {
-                if (throwable instanceof Error || throwable instanceof LifecycleException) {
-                    Halt.halt(null);
-                }
-                SessionService.cleanSessions();
-                System.gc();
-            }
-        });
+        Thread.setDefaultUncaughtExceptionHandler(SessionService::uncaughtException);
 
         post(new Route("/backend/cypher") {
             protected Object doHandle(Request request, Response response, Neo4jService service) {
@@ -50,7 +40,7 @@ public class BackendApplication implements SparkApplication {
                 if (query!=null && !query.isEmpty()) {
                     LOG.warn( "cypher: "+query );
                 }
-                String result = gson().toJson(consoleService.execute(service, null, query, null, null,null));
+                String result = gson().toJson(consoleService.execute(service, null, query, null, renderings(request), null));
                 LOG.info(result);
                 return result;
             }
@@ -70,7 +60,7 @@ public class BackendApplication implements SparkApplication {
                 } else {
                     query = "none";
                 }
-                String result = gson().toJson(consoleService.execute(service, null, query, null,null,null));
+                String result = gson().toJson(consoleService.execute(service, null, query, null, renderings(request), null));
                 LOG.debug (result);
                 return result;
             }
@@ -107,6 +97,11 @@ public class BackendApplication implements SparkApplication {
         });
     }
 
+    // GraphGist pages that only need the json rows skip the text table with include=json and viz=none
+    private Map<String, Object> renderings(Request request) {
+        return map("include", request.queryParams("include"), "viz", request.queryParams("viz"));
+    }
+
     private Gson gson() {
         return new GsonBuilder().disableHtmlEscaping().create();
     }
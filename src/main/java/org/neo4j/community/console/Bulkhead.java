@@ -0,0 +1,105 @@
+package org.neo4j.community.console;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Limits the requests one part of the console handles at the same time, so that e.g. a flood of GraphGist
+ * requests to {@code /backend} can't take all Jetty threads from the interactive {@code /console} users.
+ * A request waits for a slot at most {@code console.bulkhead.<name>.wait} ms, if too many are waiting already
+ * it is rejected right away.
+ * Configured per bulkhead with {@code console.bulkhead.<name>.concurrency} and {@code console.bulkhead.<name>.queue}.
+ */
+class Bulkhead {
+
+    private static final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int concurrency;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final Semaphore semaphore;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueuedSeen = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+
+    Bulkhead(String name, int concurrency, int maxQueued, long maxWaitMillis) {
+        this.name = name;
+        this.concurrency = concurrency;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.semaphore = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * The bulkhead with the given name, by default it allows a quarter of the Jetty threads and as many waiting requests.
+     */
+    static Bulkhead get(String name) {
+        return bulkheads.computeIfAbsent(name, n -> {
+            int concurrency = (int) Util.setting("console.bulkhead." + n + ".concurrency", Math.max(1, ThreadPools.MAX_THREADS / 4));
+            int queue = (int) Util.setting("console.bulkhead." + n + ".queue", concurrency);
+            long wait = Util.setting("console.bulkhead." + n + ".wait", 5000);
+            return new Bulkhead(n, concurrency, queue, wait);
+        });
+    }
+
+    /**
+     * Waits for a slot, it has to be given back with {@link #release()}.
+     * @throws SessionRejectedException if too many requests are waiting or no slot became free in time
+     */
+    void acquire() {
+        long start = System.currentTimeMillis();
+        if (!semaphore.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                throw new SessionRejectedException("Too many requests, please try again in a moment.", SessionRejectedException.TOO_MANY_REQUESTS, 1);
+            }
+            maxQueuedSeen.accumulateAndGet(queued.get(), Math::max);
+            boolean acquired;
+            try {
+                acquired = semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                queued.decrementAndGet();
+            }
+            if (!acquired) {
+                rejected.incrementAndGet();
+                throw new SessionRejectedException("The console is busy, please try again in a moment.");
+            }
+        }
+        requests.incrementAndGet();
+        waitTime.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    void release() {
+        semaphore.release();
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = requests.get();
+        int active = concurrency - semaphore.availablePermits();
+        return map("concurrency", concurrency, "maxQueue", maxQueued, "active", active, "queued", queued.get(),
+                "maxQueued", maxQueuedSeen.get(), "saturation", active * 100 / concurrency, "requests", count,
+                "rejected", rejected.get(), "avgWaitMillis", count == 0 ? 0 : waitTime.get() / count);
+    }
+
+    static Map<String, Object> getAllMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            metrics.put(bulkhead.name, bulkhead.getMetrics());
+        }
+        return metrics;
+    }
+}
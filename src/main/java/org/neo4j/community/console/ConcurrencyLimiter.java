@@ -0,0 +1,128 @@
+package org.neo4j.community.console;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Limits the number of requests doing database work at the same time, with virtual and with platform threads.
+ * With virtual threads the number of concurrent requests is no longer bounded by the thread pool,
+ * so this keeps the cpu and memory used by queries in check, other requests wait for a permit.
+ * With the platform thread pool it caps database work below the {@code console.threads.max} pool threads,
+ * which also serve the static files and the routes without database work.
+ * At most {@code console.db.queue} requests wait, until their deadline at the latest, so that load
+ * is shed with a 429 or 503 instead of piling up until the console runs out of memory.
+ */
+class ConcurrencyLimiter {
+
+    static final int MAX_CONCURRENT = (int) Util.setting("console.db.concurrency", Runtime.getRuntime().availableProcessors() * 4);
+    static final int MAX_QUEUED = (int) Util.setting("console.db.queue", MAX_CONCURRENT * 4);
+    static final long MAX_WAIT_MILLIS = Util.setting("console.db.wait", 10000);
+
+    private static final ConcurrencyLimiter INSTANCE = new ConcurrencyLimiter(MAX_CONCURRENT, MAX_QUEUED, MAX_WAIT_MILLIS);
+
+    private final int permits;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final Semaphore semaphore;
+    private final ThreadLocal<Boolean> holding = new ThreadLocal<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger maxWaiting = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+
+    ConcurrencyLimiter(int permits, long maxWaitMillis) {
+        this(permits, Integer.MAX_VALUE, maxWaitMillis);
+    }
+
+    ConcurrencyLimiter(int permits, int maxQueued, long maxWaitMillis) {
+        this.permits = permits;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    static ConcurrencyLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    public <T> T call(Callable<T> work) throws Exception {
+        return call(work, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param deadline the time by which the work has to have started, the request may have waited elsewhere before
+     * @throws SessionRejectedException if too many requests are waiting or no permit became available in time
+     */
+    public <T> T call(Callable<T> work, long deadline) throws Exception {
+        long start = System.currentTimeMillis();
+        boolean permitted = semaphore.tryAcquire();
+        if (!permitted) {
+            int queued = waiting.incrementAndGet();
+            try {
+                if (queued > maxQueued) {
+                    shed.incrementAndGet();
+                    throw new SessionRejectedException("Too many requests, please try again in a moment.", SessionRejectedException.TOO_MANY_REQUESTS, 1);
+                }
+                maxWaiting.accumulateAndGet(queued, Math::max);
+                long wait = Math.min(maxWaitMillis, deadline - start);
+                permitted = wait > 0 && semaphore.tryAcquire(wait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                permitted = false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        if (!permitted) {
+            rejected.incrementAndGet();
+            throw new SessionRejectedException("The console is busy, please try again in a moment.");
+        }
+        holding.set(Boolean.TRUE);
+        try {
+            acquired.incrementAndGet();
+            waitTime.addAndGet(System.currentTimeMillis() - start);
+            return work.call();
+        } finally {
+            if (holding.get() != null) semaphore.release();
+            holding.remove();
+        }
+    }
+
+    /**
+     * Sleeps without the permit the current thread holds, so that other requests can do their database work meanwhile,
+     * and takes a permit again afterwards.
+     * @throws SessionRejectedException if no permit became available again in time
+     */
+    public void sleep(long millis) throws InterruptedException {
+        if (holding.get() == null) {
+            Thread.sleep(millis);
+            return;
+        }
+        holding.remove();
+        semaphore.release();
+        try {
+            Thread.sleep(millis);
+        } finally {
+            if (!semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                throw new SessionRejectedException("The console is busy, please try again in a moment.");
+            }
+            holding.set(Boolean.TRUE);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = acquired.get();
+        return map("permits", permits, "active", permits - semaphore.availablePermits(), "waiting", waiting.get(),
+                "maxWaiting", maxWaiting.get(), "maxQueue", maxQueued, "rejected", rejected.get(), "shed", shed.get(), "requests", count,
+                "avgWaitMillis", count == 0 ? 0 : waitTime.get() / count);
+    }
+}
@@ -2,6 +2,7 @@ package org.neo4j.community.console;
 
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -11,7 +12,6 @@ import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.slf4j.Logger;
 
 import java.io.File;
-import java.util.concurrent.*;
 
 public class Console
 {
@@ -20,7 +20,6 @@ public class Console
     private Server server;
     private final DatabaseInfo databaseInfo;
     private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Console.class);
-    private final ScheduledExecutorService pool = Executors.newSingleThreadScheduledExecutor();
 
     public Console(DatabaseInfo databaseInfo) {
         this.databaseInfo = databaseInfo;
@@ -49,7 +48,10 @@ public class Console
 
     public void start(int port) throws Exception {
         LOG.warn("Port used: " + port + " location " + WEBAPP_LOCATION + " " + databaseInfo.toString());
-        server = new Server(port);
+        server = new Server(ThreadPools.create());
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
         server.setStopAtShutdown(true);
         Halt.setServer(server);
         WebAppContext root = new WebAppContext();
@@ -63,7 +65,6 @@ public class Console
         final Handler resourceHandler = createResourceHandler("/console_assets", WEBAPP_LOCATION);
         handlers.setHandlers(new Handler[]{resourceHandler, root});
         server.setHandler(handlers);
-        pool.scheduleAtFixedRate(new CheckMemoryThread(),0,10, TimeUnit.SECONDS);
         server.start();
     }
 
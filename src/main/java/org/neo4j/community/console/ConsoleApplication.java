@@ -6,14 +6,19 @@ import static spark.Spark.get;
 import static spark.Spark.post;
 import static spark.Spark.before;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import com.google.gson.GsonBuilder;
-import org.neo4j.kernel.lifecycle.LifecycleException;
 import org.slf4j.Logger;
 
 import spark.Filter;
@@ -34,13 +39,7 @@ public class ConsoleApplication implements SparkApplication {
     public void init() {
         SessionService.setDatabaseInfo(ConsoleFilter.getDatabase());
         consoleService = new ConsoleService();
-        Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
-            if (throwable instanceof Error || throwable instanceof LifecycleException) {
-                Halt.halt(null);
-            }
-            SessionService.cleanSessions();
-            System.gc();
-        });
+        Thread.setDefaultUncaughtExceptionHandler(SessionService::uncaughtException);
         before(new Filter() {
             @Override
             public void handle(Request request, Response response) {
@@ -67,6 +66,58 @@ public class ConsoleApplication implements SparkApplication {
                 return toJson(result);
             }
         });
+        // the rows are written while the query runs, as NDJSON or with format=json as one JSON object
+        post(new Route("console/stream") {
+            protected Object doHandle(Request request, Response response, Neo4jService service) throws IOException {
+                final String body = request.body();
+                Map data = body.startsWith("{") ? fromJson(body) : Collections.singletonMap("query", body);
+                boolean json = "json".equals(param(request, "format", "ndjson"));
+                response.type(json ? "application/json" : "application/x-ndjson");
+                Writer writer = new BufferedWriter(new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8));
+                consoleService.stream(service, (String) data.get("query"), (Map) data.get("queryParams"), json ? ResultStream.json(writer) : ResultStream.ndjson(writer));
+                return "";
+            }
+        });
+        // {"statements":[{"statement":..,"parameters":{..},"result":true},..]} or a script, in one transaction unless transaction=each
+        post(new Route("console/batch") {
+            protected Object doHandle(Request request, Response response, Neo4jService service) {
+                Map<String, Object> result;
+                try {
+                    final String body = request.body();
+                    Map data = body.startsWith("{") ? fromJson(body) : Collections.singletonMap("query", body);
+                    boolean oneTransaction = !"each".equals(param(request, "transaction", "single"));
+                    Map<String, Object> queryParams = (Map) data.get("queryParams");
+                    CypherBatch batch = data.get("statements") instanceof List
+                            ? CypherBatch.fromMaps((List) data.get("statements"), queryParams, oneTransaction)
+                            : CypherBatch.fromScript((String) data.get("query"), queryParams, oneTransaction);
+                    result = consoleService.batch(service, batch);
+                } catch (Exception e) {
+                    result = map("error", e.toString());
+                }
+                return toJson(result);
+            }
+        });
+        // also sent as beacon when the page is closed, that can't set the session header, it sends the token of its session instead
+        post(new Route("console/cancel") {
+            protected Object doHandle(Request request, Response response, Neo4jService service) {
+                String sessionId = getSessionId(request);
+                if (sessionId == null) {
+                    sessionId = request.queryParams("session");
+                    if (!QueryCancellation.isToken(sessionId, request.queryParams("token"))) return stop(403, "Invalid cancel token");
+                }
+                return toJson(map("cancelled", QueryCancellation.cancel(sessionId)));
+            }
+
+            @Override
+            protected boolean usesDatabase() {
+                return false;
+            }
+
+            @Override
+            protected Neo4jService service(Request request) {
+                return null;
+            }
+        });
         post(new Route("console/version") {
             protected Object doHandle(Request request, Response response, Neo4jService service) {
                 final String version = request.body();
@@ -77,7 +128,8 @@ public class ConsoleApplication implements SparkApplication {
         get(new Route("console/cypher") {
             protected Object doHandle(Request request, Response response, Neo4jService service) {
                 String query = param(request, "query", "");
-                    return service.cypherQueryResults(query).toString();
+                Supplier<String> results = () -> service.cypherQueryResults(query).toString();
+                return service.isMutatingQuery(query) ? service.exclusive(results) : service.shared(results);
             }
         });
         post(new Route("console/init") {
@@ -98,6 +150,7 @@ public class ConsoleApplication implements SparkApplication {
                 } else {
                     result = consoleService.init(service, input);
                 }
+                if (getSessionId(request) != null) result.put("cancelToken", QueryCancellation.token(getSessionId(request)));
                 return toJson(result);
             }
 
@@ -105,7 +158,7 @@ public class ConsoleApplication implements SparkApplication {
         get(new Route("console/visualization") {
             protected Object doHandle(Request request, Response response, Neo4jService service) {
                 String query = request.queryParams("query");
-                return toJson(service.cypherQueryViz(query));
+                return toJson(service.shared(() -> service.cypherQueryViz(query)));
             }
         });
         get(new Route("console/to_yuml") {
@@ -114,28 +167,59 @@ public class ConsoleApplication implements SparkApplication {
                 String[] props = param(request, "props", "name").split(",");
                 final String type = param(request, "type", "jpg");
                 final String scale = param(request, "type", "100");
-                SubGraph graph;
-                if (query.trim().isEmpty() || !service.isCypherQuery(query) || service.isMutatingQuery(query)) {
-                    graph = SubGraph.from(service.getGraphDatabase());
-                } else {
+                final SubGraph graph = service.shared(() -> {
+                    if (query.trim().isEmpty() || !service.isCypherQuery(query) || service.isMutatingQuery(query)) {
+                        return service.subGraph();
+                    }
                     final CypherQueryExecutor.CypherResult result = service.cypherQuery(query, null);
-                    graph = SubGraph.from(service.getGraphDatabase(), result);
-                }
+                    return SubGraph.from(service.getGraphDatabase(), result);
+                });
                 final String yuml = new YumlExport().toYuml(graph, props);
                 return String.format("http://yuml.me/diagram/scruffy;dir:LR;scale:%s;/class/%s.%s", scale, yuml, type);
             }
         });
         get(new Route("console/to_cypher") {
             protected Object doHandle(Request request, Response response, Neo4jService service) {
-                return service.exportToCypher();
+                return service.shared(service::exportToCypher);
+            }
+        });
+        get(new Route("console/journal") {
+            protected Object doHandle(Request request, Response response, Neo4jService service) {
+                return toJson(service.shared(() -> map("version", service.getVersion(),
+                        "complete", service.getJournal().isComplete(), "entries", service.getJournal().toMaps())));
+            }
+        });
+        // moves a session from another console, replaces the graph of this one
+        post(new Route("console/journal") {
+            protected Object doHandle(Request request, Response response, Neo4jService service) {
+                final Map input = requestBodyToMap(request);
+                if (!service.doesOwnDatabase() || service.isTenant() || !(input.get("entries") instanceof List) || Boolean.FALSE.equals(input.get("complete"))) {
+                    return toJson(map("error", "The journal can't be replayed into this session"));
+                }
+                @SuppressWarnings("unchecked") final SessionJournal journal = SessionJournal.fromMaps((List<Map<String, Object>>) input.get("entries"), (String) input.get("version"));
+                return toJson(service.exclusive(() -> {
+                    service.replaceWith(journal);
+                    return map("entries", journal.size(), "version", service.getVersion());
+                }));
             }
         });
         get(new Route("console/shorten") {
+            @Override
+            protected boolean usesDatabase() {
+                return false;
+            }
+
             protected Object doHandle(Request request, Response response, Neo4jService service) throws IOException {
                 return consoleService.shortenUrl(request.queryParams("url"));
             }
         });
 
+        get(new spark.Route("console/metrics") {
+            public Object handle(Request request, Response response) {
+                return toJson(SessionService.getMetrics());
+            }
+        });
+
         delete(new Route("console") {
             protected Object doHandle(Request request, Response response, Neo4jService service) {
                 reset(request);
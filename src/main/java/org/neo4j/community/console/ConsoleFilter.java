@@ -2,23 +2,60 @@ package org.neo4j.community.console;
 
 import spark.servlet.SparkFilter;
 
+import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 /**
+ * Runs one Spark application, its requests go through the {@link Bulkhead} named after the filter,
+ * e.g. {@code backend} for the BackendApplication.
+ *
  * @author mh
  * @since 05.06.12
  */
 public class ConsoleFilter extends SparkFilter {
     private final static ThreadLocal<ServletContext> ctx=new ThreadLocal<>();
     public static final String DATABASE_ATTRIBUTE = "database";
+    static final String ARRIVAL_ATTRIBUTE = "console.arrival";
+    // how long a request may wait in total for the bulkhead and the database before it is rejected
+    static final long DEADLINE_MILLIS = Util.setting("console.request.deadline", 15000);
+    private Bulkhead bulkhead;
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         ctx.set(filterConfig.getServletContext());
         super.init(filterConfig);
         ctx.remove();
+        bulkhead = Bulkhead.get(filterConfig.getFilterName().replace("Application", "").toLowerCase());
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (request.getAttribute(ARRIVAL_ATTRIBUTE) == null) request.setAttribute(ARRIVAL_ATTRIBUTE, System.currentTimeMillis());
+        try {
+            bulkhead.acquire();
+        } catch (SessionRejectedException sre) {
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", String.valueOf(sre.getRetryAfterSeconds()));
+            httpResponse.sendError(sre.getStatus(), sre.getMessage());
+            return;
+        }
+        try {
+            super.doFilter(request, response, chain);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    static long deadline(HttpServletRequest request) {
+        Object arrival = request.getAttribute(ARRIVAL_ATTRIBUTE);
+        return arrival instanceof Long ? (Long) arrival + DEADLINE_MILLIS : Long.MAX_VALUE;
     }
 
     public static DatabaseInfo getDatabase() {
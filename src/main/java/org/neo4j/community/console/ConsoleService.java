@@ -22,10 +22,16 @@ import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 import static org.neo4j.helpers.collection.MapUtil.map;
 
@@ -52,9 +58,12 @@ public class ConsoleService {
                     "(Cypher)-[:KNOWS]->(Smith), " +
                     "(Smith)-[:CODED_BY]->(Architect)";
 
+    private static final int SHORTEN_TIMEOUT_MILLIS = 5000;
+
     static final String DEFAULT_QUERY = "match (n:Crew)-[r:KNOWS*]-(m) where n.name='Neo' return n as Neo,r,m";
 
     private GraphStorage storage;
+    private final StoreImages storeImages = StoreImages.getInstance();
 
     public ConsoleService() {
         createGraphStorage();
@@ -102,8 +111,109 @@ public class ConsoleService {
         LOG.warn(msg);
     }
 
-    // split init and query on ";\n"
+    // init and query are split into statements on semicolons
+    // initializing and updating the graph is exclusive for the session, read-only queries run in parallel
     public Map<String, Object> execute(Neo4jService service, String init, String query, String version, Map<String, Object> requestParams, Map<String, Object> queryParams) {
+        final Supplier<Map<String, Object>> request = () -> doExecute(service, init, query, version, requestParams, queryParams);
+        final Map<String, Object> data = isUpdate(service, init, query, requestParams) ? service.exclusive(request) : service.shared(request);
+        data.put("session", service.getGate().getMetrics());
+        return data;
+    }
+
+    /**
+     * Runs the statements of the query and writes the result of the last one to the stream while it is read.
+     * Errors are written to the stream as well, the response has started already.
+     */
+    public void stream(Neo4jService service, String query, Map<String, Object> queryParams, ResultStream out) throws IOException {
+        final Supplier<Void> request = () -> {
+            try {
+                doStream(service, query, queryParams, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        };
+        try {
+            if (isUpdate(service, null, query, null)) service.exclusive(request);
+            else service.shared(request);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void doStream(Neo4jService service, String query, Map<String, Object> queryParams, ResultStream out) throws IOException {
+        try {
+            if (query == null) throw new IllegalArgumentException("The query contains no statement");
+            String last = null;
+            for (String q : new CypherScript(query)) {
+                if (last != null) service.cypherQuery(last, queryParams);
+                last = q;
+            }
+            if (last == null) throw new IllegalArgumentException("The query contains no statement");
+            service.streamQuery(last, queryParams, out);
+        } catch (QuotaExceededException | QueryCancelledException e) {
+            out.error(e.getMessage());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (Exception e) {
+            LOG.warn("Error streaming query " + query, e);
+            out.error(e.toString());
+        }
+    }
+
+    /**
+     * Runs the statements of the batch in a single request, see {@link Neo4jService#batchQuery}.
+     * If a statement fails the error names its index, in one transaction the results before it are dropped as they were rolled back.
+     */
+    public Map<String, Object> batch(Neo4jService service, CypherBatch batch) {
+        final Supplier<Map<String, Object>> request = () -> doBatch(service, batch);
+        final Map<String, Object> data = isUpdate(service, batch) ? service.exclusive(request) : service.shared(request);
+        data.put("session", service.getGate().getMetrics());
+        return data;
+    }
+
+    private Map<String, Object> doBatch(Neo4jService service, CypherBatch batch) {
+        final List<Map<String, Object>> results = new ArrayList<>(batch.size());
+        final Map<String, Object> data = map("results", results);
+        long start = System.currentTimeMillis();
+        String error = null;
+        try {
+            service.batchQuery(batch, results);
+        } catch (QuotaExceededException | QueryCancelledException e) {
+            error = e.getMessage();
+        } catch (Exception e) {
+            LOG.warn("Error running batch of " + batch.size() + " statements", e);
+            error = e.toString();
+        }
+        if (error != null) {
+            data.put("error", error);
+            data.put("failed", results.size());
+            if (batch.isOneTransaction()) results.clear();
+        }
+        data.put("quota", service.getQuota().getUsage());
+        data.put("time", System.currentTimeMillis() - start);
+        return data;
+    }
+
+    private boolean isUpdate(Neo4jService service, CypherBatch batch) {
+        for (CypherBatch.Statement statement : batch) {
+            if (service.isMutatingQuery(statement.query)) return true;
+        }
+        return false;
+    }
+
+    private boolean isUpdate(Neo4jService service, String init, String query, Map<String, Object> requestParams) {
+        if (init != null || mustInitialize(requestParams)) return true;
+        if (query == null) return false;
+        for (String q : new CypherScript(query)) {
+            if (service.isMutatingQuery(q)) return true;
+        }
+        return false;
+    }
+
+    private Map<String, Object> doExecute(Neo4jService service, String init, String query, String version, Map<String, Object> requestParams, Map<String, Object> queryParams) {
         if (version != null) service.setVersion(version);
         boolean initial = init != null || mustInitialize(requestParams);
         if (!mustInitialize(requestParams)) {
@@ -116,14 +226,17 @@ public class ConsoleService {
         long start = System.currentTimeMillis(), time = start;
         try {
             time = trace("service", time);
-            if (initial) service.clear();
-            if (initial) {
+            if (initial && !initializeFromImage(service, init, queryParams)) {
+                service.clear();
                 final URL url = service.toUrl(init);
                 if (url != null) {
                     initFromUrl(service, url, "match (n) optional match (n)-[r]->() return n,r");
                 } else if (service.isMutatingQuery(init)) {
-                    for (String q : splitQuery(init)) {
-                        service.initCypherQuery(q, queryParams);
+                    long replayStart = System.currentTimeMillis();
+                    final CypherScript statements = new CypherScript(init);
+                    service.initCypherQueries(statements, queryParams);
+                    if (canUseImage(service, init, queryParams)) {
+                        storeImages.record(init, service.getVersion(), statements, System.currentTimeMillis() - replayStart);
                     }
                 }
             }
@@ -133,14 +246,24 @@ public class ConsoleService {
             time = trace("graph", time);
             CypherQueryExecutor.CypherResult result = null;
             if (query != null) {
-                for (String q : splitQuery(query)) {
-                    result = service.cypherQuery(q, queryParams);
+                final PlanMode planMode = PlanMode.of(param(requestParams, "plan", null));
+                for (Iterator<String> statements = new CypherScript(query).iterator(); statements.hasNext(); ) {
+                    String q = statements.next();
+                    result = service.cypherQuery(q, queryParams, statements.hasNext() ? PlanMode.NONE : planMode);
+                }
+                if (result == null) throw new IllegalArgumentException("The query contains no statement");
+                if (includes(requestParams, "result")) data.put("result", result.getText());
+                if (includes(requestParams, "json")) data.put("json", result.getJson());
+                if (includes(requestParams, "plan") && result.hasPlan()) {
+                    data.put("plan", result.getPlan());
+                    data.put("planTree", result.getPlanTree());
                 }
-                data.put("result", result.getText());
-                data.put("json", result.getJson());
-                data.put("plan", result.getPlan().toString());
                 data.put("columns", result.getColumns());
-                data.put("stats", result.getQueryStatistics());
+                if (includes(requestParams, "stats")) {
+                    @SuppressWarnings("unchecked") final Map<String, Object> stats = result.getQueryStatistics();
+                    stats.put("quota", service.getQuota().getUsage());
+                    data.put("stats", stats);
+                }
                 String pretty = service.prettify(query);
                 if (pretty != null) data.put("query", pretty);
             }
@@ -149,6 +272,11 @@ public class ConsoleService {
                 data.put("visualization", service.cypherQueryViz(result));
             }
             trace("viz", time);
+        } catch (QuotaExceededException e) {
+            data.put("error", e.getMessage());
+            data.put("stats", map("quota", service.getQuota().getUsage()));
+        } catch (QueryCancelledException e) {
+            data.put("error", e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             data.put("error", e.toString());
@@ -158,6 +286,29 @@ public class ConsoleService {
         return data;
     }
 
+    private boolean canUseImage(Neo4jService service, String init, Map<String, Object> queryParams) {
+        return init != null && service.doesOwnDatabase() && (queryParams == null || queryParams.isEmpty());
+    }
+
+    // swap in a database started from a store image of the init script, the previous database goes back to the pool
+    private boolean initializeFromImage(Neo4jService service, String init, Map<String, Object> queryParams) {
+        if (!canUseImage(service, init, queryParams)) return false;
+        final Neo4jService seeded = storeImages.materialize(init, service.getVersion());
+        if (seeded == null) return false;
+        service.swapDatabase(seeded);
+        for (String statement : new CypherScript(init)) {
+            service.getJournal().record(statement, null, null);
+        }
+        SessionService.release(seeded);
+        return true;
+    }
+
+    // the renderings of the result a request asks for with e.g. include=json,stats, all by default
+    private boolean includes(Map<String, Object> params, String rendering) {
+        Object include = params == null ? null : params.get("include");
+        return include == null || Arrays.asList(include.toString().split(",")).contains(rendering);
+    }
+
     private boolean noViz(Map<String, Object> params) {
         return params != null && "none".equals(params.get("viz"));
     }
@@ -165,12 +316,8 @@ public class ConsoleService {
         return params != null && "true".equals(params.get("initialize"));
     }
 
-    private String[] splitQuery(String allQueries) {
-        return allQueries.split(";\n");
-    }
-
     private boolean dontInitialize(Neo4jService service) {
-        return !service.doesOwnDatabase() || service.isInitialized();
+        return (!service.doesOwnDatabase() && !service.isTenant()) || service.isInitialized();
     }
 
     protected long trace(String msg, long time) {
@@ -182,7 +329,10 @@ public class ConsoleService {
 
     public String shortenUrl(String uri) {
         try {
-            final InputStream stream = (InputStream) new URL("http://tinyurl.com/api-create.php?url=" + URLEncoder.encode(uri, "UTF-8")).getContent();
+            final URLConnection connection = new URL("http://tinyurl.com/api-create.php?url=" + URLEncoder.encode(uri, "UTF-8")).openConnection();
+            connection.setConnectTimeout(SHORTEN_TIMEOUT_MILLIS);
+            connection.setReadTimeout(SHORTEN_TIMEOUT_MILLIS);
+            final InputStream stream = connection.getInputStream();
             final String shortUrl = new Scanner(stream).useDelimiter("\\z").next();
             stream.close();
             return shortUrl;
@@ -0,0 +1,103 @@
+package org.neo4j.community.console;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statements of a batch request, each with its own parameters, they run in one transaction unless each is committed on its own.
+ * Only the statements that ask for their result keep their rows, the others just report their statistics.
+ */
+class CypherBatch implements Iterable<CypherBatch.Statement> {
+
+    static final int MAX_STATEMENTS = (int) Util.setting("console.batch.statements", 1000);
+
+    static class Statement {
+        final String query;
+        final Map<String, Object> params;
+        final boolean result;
+
+        Statement(String query, Map<String, Object> params, boolean result) {
+            this.query = query;
+            this.params = params;
+            this.result = result;
+        }
+    }
+
+    private final List<Statement> statements;
+    private final boolean oneTransaction;
+
+    private CypherBatch(List<Statement> statements, boolean oneTransaction) {
+        if (statements.isEmpty()) throw new IllegalArgumentException("The batch contains no statement");
+        if (oneTransaction) {
+            for (Statement statement : statements) {
+                if (CypherStatement.of(statement.query).isPeriodicCommit()) {
+                    throw new IllegalArgumentException("Periodic commits can't run in the transaction of the batch, use transaction=each");
+                }
+            }
+        }
+        this.statements = statements;
+        this.oneTransaction = oneTransaction;
+    }
+
+    /**
+     * @param statements maps with the {@code statement}, its {@code parameters} and if its {@code result} is returned,
+     *                   by default only the one of the last statement
+     * @param params used for statements without parameters, can be null
+     */
+    @SuppressWarnings("unchecked")
+    static CypherBatch fromMaps(List<?> statements, Map<String, Object> params, boolean oneTransaction) {
+        final List<Statement> result = new ArrayList<>(statements.size());
+        for (Object input : statements) {
+            checkSize(result);
+            if (!(input instanceof Map) || !(((Map) input).get("statement") instanceof String)) {
+                throw new IllegalArgumentException("Batch statements need a statement, not " + input);
+            }
+            final Map<String, Object> statement = (Map<String, Object>) input;
+            final Object parameters = statement.get("parameters");
+            final Object returns = statement.get("result");
+            result.add(new Statement((String) statement.get("statement"), parameters instanceof Map ? (Map<String, Object>) parameters : params,
+                    returns == null ? result.size() == statements.size() - 1 : Boolean.TRUE.equals(returns) || "true".equals(returns)));
+        }
+        return new CypherBatch(result, oneTransaction);
+    }
+
+    /**
+     * The statements of the script share the params, only the last one returns its result.
+     */
+    static CypherBatch fromScript(String script, Map<String, Object> params, boolean oneTransaction) {
+        final List<Statement> result = new ArrayList<>();
+        if (script != null) {
+            for (String query : new CypherScript(script)) {
+                checkSize(result);
+                result.add(new Statement(query, params, false));
+            }
+        }
+        if (!result.isEmpty()) {
+            final Statement last = result.remove(result.size() - 1);
+            result.add(new Statement(last.query, last.params, true));
+        }
+        return new CypherBatch(result, oneTransaction);
+    }
+
+    private static void checkSize(List<Statement> statements) {
+        if (statements.size() >= MAX_STATEMENTS) {
+            throw new IllegalArgumentException("A batch can contain at most " + MAX_STATEMENTS + " statements");
+        }
+    }
+
+    boolean isOneTransaction() {
+        return oneTransaction;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    @Override
+    public Iterator<Statement> iterator() {
+        return Collections.unmodifiableList(statements).iterator();
+    }
+}
@@ -12,9 +12,20 @@ import java.util.TreeMap;
  */
 class CypherExportService {
     private final GraphDatabaseService gdb;
+    private final Label tenant;
 
     CypherExportService(GraphDatabaseService gdb) {
+        this(gdb, null);
+    }
+
+    CypherExportService(GraphDatabaseService gdb, Label tenant) {
         this.gdb = gdb;
+        this.tenant = tenant;
+    }
+
+    private Iterable<Node> nodes() {
+        if (tenant == null) return gdb.getAllNodes();
+        return () -> gdb.findNodes(tenant);
     }
 
     public String export() {
@@ -31,7 +42,7 @@ class CypherExportService {
     }
 
     private int appendRelationships(StringBuilder sb, int count) {
-        for (Node node : gdb.getAllNodes()) {
+        for (Node node : nodes()) {
             for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
                 if (count > 0) { sb.append(",\n"); }
                 count++;
@@ -53,7 +64,7 @@ class CypherExportService {
 
     private int appendNodes(StringBuilder sb) {
         int count = 0;
-        for (Node node : gdb.getAllNodes()) {
+        for (Node node : nodes()) {
             if (count > 0) { sb.append(",\n"); }
             count++;
             appendNode(sb, node);
@@ -72,6 +83,7 @@ class CypherExportService {
 
     private void formatLabels(StringBuilder sb, Node node) {
         for (Label label : node.getLabels()) {
+            if (TenantIsolation.isTenantLabel(label.name())) continue;
             sb.append(":`").append(label.name()).append("`");
         }
     }
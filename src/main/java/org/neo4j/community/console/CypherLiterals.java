@@ -0,0 +1,217 @@
+package org.neo4j.community.console;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Replaces the string and number literals of a statement with parameters, so that statements that only differ in their
+ * literals share one plan in the query cache, e.g. {@code MATCH (n {name:'Neo'})} becomes {@code MATCH (n {name:$_literal0})}.
+ * <p>
+ * Only literals that are values are replaced. Literals before the first clause ({@code CYPHER 3.5}), in the RETURN clause
+ * whose column names would change, in variable length ranges, octal and hex numbers and field terminators stay.
+ * Schema statements, periodic commits, statements with their own EXPLAIN or PROFILE and ones with {@code {param}} parameters
+ * are not rewritten. A rewritten shape has to compile once before it is used, see {@link #isVerified}, otherwise the statement
+ * runs as it is. The outcome is kept for the last {@code console.literals.cached} shapes.
+ */
+class CypherLiterals {
+
+    static final boolean ENABLED = Util.setting("console.literals.parameterize", 1) == 1;
+    static final int MAX_CACHED = (int) Util.setting("console.literals.cached", 1000);
+    static final String PREFIX = "_literal";
+
+    private static final Set<String> CLAUSES = new HashSet<>(Arrays.asList("START", "MATCH", "OPTIONAL", "CREATE", "MERGE",
+            "UNWIND", "WITH", "RETURN", "CALL", "LOAD", "FOREACH", "DETACH", "DELETE", "SET", "REMOVE"));
+
+    private static final Map<String, Boolean> verified = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_CACHED;
+        }
+    });
+    private static final AtomicLong rewritten = new AtomicLong();
+    private static final AtomicLong unsafe = new AtomicLong();
+
+    static class Parameterized {
+        final String query;
+        final Map<String, Object> params;
+
+        Parameterized(String query, Map<String, Object> params) {
+            this.query = query;
+            this.params = params;
+        }
+    }
+
+    /**
+     * @return the statement with parameters for its literals and the params with their values, null if nothing was replaced
+     */
+    static Parameterized parameterize(String query, Map<String, Object> params) {
+        CypherStatement statement = CypherStatement.of(query);
+        if (!statement.isCypher() || statement.isSchema() || statement.isPeriodicCommit() || statement.hasPlan() || query.contains(PREFIX)) {
+            return null;
+        }
+        final StringBuilder result = new StringBuilder(query.length());
+        final Map<String, Object> literals = new LinkedHashMap<>();
+        boolean started = false, returns = false;
+        String previous = null;
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            int end = CypherStatement.skipLiteral(query, i);
+            if (end > i) {
+                Object value = c == '\'' || c == '"' ? unescape(query, i, end) : null;
+                if (value == null && (c == '\'' || c == '"')) return null;
+                if (value == null || !started || returns || "FIELDTERMINATOR".equals(previous)) result.append(query, i, end);
+                else add(result, literals, value);
+                if (c != '/') previous = null;
+                i = end;
+                continue;
+            }
+            if (c == '{' && isOldParameter(query, i)) return null;
+            if (Character.isDigit(c)) {
+                end = skipNumber(query, i);
+                Object value = started && !returns && !isRange(query, i, end) ? number(query.substring(i, end)) : null;
+                if (value == null) result.append(query, i, end);
+                else add(result, literals, value);
+                previous = null;
+                i = end;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(query.charAt(end)) && query.charAt(end) != '$') end++;
+                String word = c == '$' || isName(query, i) ? null : query.substring(i, end).toUpperCase();
+                if (word != null) {
+                    if (CLAUSES.contains(word)) started = true;
+                    if (word.equals("RETURN")) returns = true;
+                    else if (word.equals("UNION")) returns = false;
+                }
+                previous = word;
+                result.append(query, i, end);
+                i = end;
+                continue;
+            }
+            if (!Character.isWhitespace(c)) previous = null;
+            result.append(c);
+            i++;
+        }
+        if (literals.isEmpty()) return null;
+        rewritten.incrementAndGet();
+        final Map<String, Object> merged = params == null ? new HashMap<>() : new HashMap<>(params);
+        merged.putAll(literals);
+        return new Parameterized(result.toString(), merged);
+    }
+
+    private static void add(StringBuilder result, Map<String, Object> literals, Object value) {
+        String name = PREFIX + literals.size();
+        literals.put(name, value);
+        result.append('$').append(name);
+    }
+
+    // property keys, labels and relationship types follow . or :, parameter names $
+    private static boolean isName(String query, int i) {
+        int before = i - 1;
+        while (before >= 0 && Character.isWhitespace(query.charAt(before))) before--;
+        return before >= 0 && (query.charAt(before) == '.' || query.charAt(before) == ':');
+    }
+
+    // the legacy {name} parameters can't be mixed with $name parameters
+    private static boolean isOldParameter(String query, int i) {
+        int end = i + 1;
+        while (end < query.length() && Character.isWhitespace(query.charAt(end))) end++;
+        int start = end;
+        while (end < query.length() && Character.isJavaIdentifierPart(query.charAt(end))) end++;
+        if (end == start) return false;
+        while (end < query.length() && Character.isWhitespace(query.charAt(end))) end++;
+        return end < query.length() && query.charAt(end) == '}';
+    }
+
+    private static int skipNumber(String query, int i) {
+        int end = i;
+        while (end < query.length() && (Character.isLetterOrDigit(query.charAt(end)) || query.charAt(end) == '_')) end++;
+        if (end + 1 < query.length() && query.charAt(end) == '.' && Character.isDigit(query.charAt(end + 1))) {
+            end++;
+            while (end < query.length() && Character.isLetterOrDigit(query.charAt(end))) end++;
+        }
+        if (end > i && end + 1 < query.length() && (query.charAt(end - 1) == 'e' || query.charAt(end - 1) == 'E')
+                && (query.charAt(end) == '-' || query.charAt(end) == '+')) {
+            end++;
+            while (end < query.length() && Character.isDigit(query.charAt(end))) end++;
+        }
+        return end;
+    }
+
+    // the bounds of variable length relationships [*2..3] must be literals, so numbers after * or next to .. stay
+    private static boolean isRange(String query, int start, int end) {
+        int before = start - 1;
+        while (before >= 0 && Character.isWhitespace(query.charAt(before))) before--;
+        if (before >= 0 && (query.charAt(before) == '*' || query.charAt(before) == '.')) return true;
+        return query.startsWith("..", end);
+    }
+
+    // decimal numbers only, a leading zero is octal
+    private static Object number(String text) {
+        try {
+            if (text.matches("(0|[1-9][0-9]*)")) return Long.parseLong(text);
+            if (text.matches("[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?") && !text.matches("0[0-9]+")) return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    // the value of the quoted string between start and end, null if it is unterminated or has an unknown escape
+    private static String unescape(String query, int start, int end) {
+        char quote = query.charAt(start);
+        if (end - start < 2 || query.charAt(end - 1) != quote) return null;
+        final StringBuilder value = new StringBuilder(end - start);
+        for (int i = start + 1; i < end - 1; i++) {
+            char c = query.charAt(i);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (++i >= end - 1) return null;
+            switch (query.charAt(i)) {
+                case '\\': value.append('\\'); break;
+                case '\'': value.append('\''); break;
+                case '"': value.append('"'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= end - 1) return null;
+                    try {
+                        value.append((char) Integer.parseInt(query.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    i += 4;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return if the rewritten statement compiled, null if it was not tried yet
+     */
+    static Boolean isVerified(String rewritten) {
+        return verified.get(rewritten);
+    }
+
+    static void verified(String rewritten, boolean compiles) {
+        if (!compiles) unsafe.incrementAndGet();
+        verified.put(rewritten, compiles);
+    }
+
+    static Map<String, Object> getMetrics() {
+        return map("enabled", ENABLED, "rewritten", rewritten.get(), "unsafe", unsafe.get(), "shapes", verified.size());
+    }
+}
@@ -9,61 +9,99 @@ import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.logging.FormattedLogProvider;
 import scala.NotImplementedError;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * @author mh
  * @since 21.04.12
  */
 public class CypherQueryExecutor {
-    public static final Pattern CANNOT_PROFILE_PATTERN = Pattern.compile("\\b(PERIODIC)\\b", Pattern.CASE_INSENSITIVE|Pattern.MULTILINE|Pattern.DOTALL);
     private final ThreadToStatementContextBridge threadToStatementContextBridge;
 	private final GraphDatabaseService gdb;
+    private final Label tenant;
+    private final SessionQuota quota;
     public static final int CYPHER_LENGTH = "CYPHER".length();
 
     public CypherQueryExecutor(GraphDatabaseService gdb) {
+        this(gdb, null, null);
+    }
+
+    /**
+     * @param tenant if not null only rows with nodes and relationships of the tenant are returned, see {@link TenantIsolation}
+     * @param quota if not null the queries are limited by it, the database needs its commit checks {@link SessionQuota#install installed}
+     */
+    public CypherQueryExecutor(GraphDatabaseService gdb, Label tenant, SessionQuota quota) {
 	    this.gdb = gdb;
+        this.tenant = tenant;
+        this.quota = quota;
         DependencyResolver dependencyResolver = ((GraphDatabaseAPI) gdb).getDependencyResolver();
 
         threadToStatementContextBridge = dependencyResolver.resolveDependency(ThreadToStatementContextBridge.class);
+        PlanFingerprints.install(gdb);
         FormattedLogProvider logProvider = FormattedLogProvider.toOutputStream(System.out);
     }
 
     public boolean isMutatingQuery(String query) {
-        return query.matches("(?is).*\\b(create|drop|add|remove|merge|delete|call|set)\\b.*");
+        return CypherStatement.of(query).isMutating();
     }
     public boolean isPeriodicCommit(String query) {
-        return query.matches("(?is).*\\b(using\\s+periodic\\s+commit)\\b.*");
+        return CypherStatement.of(query).isPeriodicCommit();
     }
     public boolean isIndexQuery(String query) {
-        return query.matches("(?is).*\\bcreate (index|constraint)\\b.*");
+        return CypherStatement.of(query).createsSchema();
     }
     public boolean isCypherQuery(String query) {
-        return query.matches("(?is).*\\b(drop|start|add|remove|merge|match|call|return|where|skip|limit|create|delete|set)\\b.*");
+        return CypherStatement.of(query).isCypher();
     }
 
+    /**
+     * The rows of a query, the text table, json rows, plan and stats are only computed when they are asked for, once.
+     */
     public static class CypherResult implements Iterable<Map<String, Object>> {
+        private static final Set<String> PLAN_STATISTICS = new HashSet<>(Arrays.asList("EstimatedRows", "Time", "Rows", "DbHits",
+                "PageCacheHits", "PageCacheMisses", "PageCacheHitRatio"));
         private final List<String> columns;
         private final String query;
-        private final String text;
         private final Collection<Map<String, Object>> rows;
-        private final List<Map<String, Object>> json;
         private QueryStatistics queryStatistics;
         private final ExecutionPlanDescription plan;
         private final long time;
+        private final GraphDatabaseService db;
+        private String text;
+        private List<Map<String, Object>> json;
+        private String planText;
+        private Map<String, Object> planTree;
+        private Map<String, Object> stats;
 
         public CypherResult(List<String> columns, Collection<Map<String, Object>> rows, QueryStatistics queryStatistics, long time, ExecutionPlanDescription plan, String query) {
+            this(columns, rows, queryStatistics, time, plan, query, null);
+        }
+
+        /**
+         * @param db if not null the text and json are computed in a transaction of it, as they read the properties of the nodes and relationships
+         */
+        CypherResult(List<String> columns, Collection<Map<String, Object>> rows, QueryStatistics queryStatistics, long time, ExecutionPlanDescription plan, String query, GraphDatabaseService db) {
             this.query = query;
             this.columns = new ArrayList<>(columns);
             this.queryStatistics = queryStatistics;
             this.time = time;
             this.rows = rows;
             this.plan = plan;
-            this.text = generateText();
-            this.json = createJson();
+            this.db = db;
+        }
+
+        // deleted nodes and relationships can only be read in the transaction that deleted them
+        CypherResult renderIfDeleted() {
+            if (queryStatistics != null && (queryStatistics.getNodesDeleted() > 0 || queryStatistics.getRelationshipsDeleted() > 0)) {
+                getText();
+                getJson();
+            }
+            return this;
         }
 
         public List<String> getColumns() {
@@ -78,10 +116,15 @@ public class CypherQueryExecutor {
             return rows.size();
         }
         
-        public Map getQueryStatistics() {
+        public synchronized Map getQueryStatistics() {
+            if (stats == null) stats = statistics(getRowCount(), getTime(), queryStatistics);
+            return new LinkedHashMap<>(stats);
+        }
+
+        static Map<String, Object> statistics(int rows, long time, QueryStatistics queryStatistics) {
             final Map<String, Object> stats = MapUtil.map(
-                    "rows", getRowCount(),
-                    "time", getTime()
+                    "rows", rows,
+                    "time", time
             );
             if (queryStatistics!=null && queryStatistics.containsUpdates()) {
                 stats.put("containsUpdates", queryStatistics.containsUpdates());
@@ -95,7 +138,8 @@ public class CypherQueryExecutor {
             return stats;
         }
         
-        public String getText() {
+        public synchronized String getText() {
+            if (text == null) text = render(this::generateText);
             return text;
         }
 
@@ -107,8 +151,50 @@ public class CypherQueryExecutor {
             return rows;
         }
 
-        public String getPlan() {
-            return plan!=null ? plan.toString() : "No Query Plan";
+        public synchronized String getPlan() {
+            if (planText == null) planText = plan!=null ? plan.toString() : "No Query Plan";
+            return planText;
+        }
+
+        public boolean hasPlan() {
+            return plan != null;
+        }
+
+        /**
+         * @return the operators of the plan as nested maps with their children, null if the query was not explained or profiled
+         */
+        public synchronized Map<String, Object> getPlanTree() {
+            if (planTree == null && plan != null) planTree = planTree(plan);
+            return planTree;
+        }
+
+        static Map<String, Object> planTree(ExecutionPlanDescription plan) {
+            final Map<String, Object> operator = new LinkedHashMap<>();
+            operator.put("operator", plan.getName());
+            operator.put("identifiers", new ArrayList<>(plan.getIdentifiers()));
+            final Map<String, Object> arguments = plan.getArguments();
+            if (arguments.containsKey("EstimatedRows")) operator.put("estimatedRows", arguments.get("EstimatedRows"));
+            if (plan.hasProfilerStatistics()) {
+                final ExecutionPlanDescription.ProfilerStatistics statistics = plan.getProfilerStatistics();
+                operator.put("rows", statistics.getRows());
+                operator.put("dbHits", statistics.getDbHits());
+                operator.put("pageCacheHits", statistics.getPageCacheHits());
+                operator.put("pageCacheMisses", statistics.getPageCacheMisses());
+                if (arguments.containsKey("Time")) operator.put("time", arguments.get("Time"));
+            }
+            final Map<String, Object> details = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> argument : arguments.entrySet()) {
+                if (PLAN_STATISTICS.contains(argument.getKey())) continue;
+                final Object value = argument.getValue();
+                details.put(argument.getKey(), value instanceof Number || value instanceof Boolean ? value : String.valueOf(value));
+            }
+            operator.put("arguments", details);
+            final List<Map<String, Object>> children = new ArrayList<>();
+            for (ExecutionPlanDescription child : plan.getChildren()) {
+                children.add(planTree(child));
+            }
+            operator.put("children", children);
+            return operator;
         }
 
         @Override
@@ -121,24 +207,38 @@ public class CypherQueryExecutor {
             return rows.iterator();
         }
 
-        public List<Map<String,Object>> getJson() {
+        public synchronized List<Map<String,Object>> getJson() {
+            if (json == null) json = render(this::createJson);
             return json;
         }
 
+        private <T> T render(Supplier<T> rendering) {
+            if (db == null) return rendering.get();
+            try (Transaction tx = db.beginTx()) {
+                T result = rendering.get();
+                tx.success();
+                return result;
+            }
+        }
+
         private List<Map<String, Object>> createJson() {
             final List<Map<String, Object>> rows = new ArrayList<>();
             for (Map<String, Object> row : this) {
-                final LinkedHashMap<String, Object> newRow = new LinkedHashMap<>();
-                for (String column : columns) {
-                    final Object value = row.get(column);
-                    newRow.put(column, toJsonCompatible(value));
-                }
-                rows.add(newRow);
+                rows.add(toJson(columns, row));
             }
             return rows;
         }
 
-        private Object toJsonCompatible(Object value) {
+        static Map<String, Object> toJson(List<String> columns, Map<String, Object> row) {
+            final LinkedHashMap<String, Object> newRow = new LinkedHashMap<>();
+            for (String column : columns) {
+                final Object value = row.get(column);
+                newRow.put(column, toJsonCompatible(value));
+            }
+            return newRow;
+        }
+
+        private static Object toJsonCompatible(Object value) {
             if (value instanceof Node) {
                 final Node node = (Node) value;
                 final Map<String, Object> result = SubGraph.toMap((PropertyContainer)node);
@@ -184,9 +284,16 @@ public class CypherQueryExecutor {
         return query; // TODO PRETTIFY executionEngine.prettify(query).replaceAll("\n","\n ");
     }
     public CypherResult cypherQuery(String query, String version, Map<String, Object> params) {
+        return cypherQuery(query, version, params, PlanMode.NONE);
+    }
+
+    /**
+     * @param planMode if the query is explained or profiled, queries that start with EXPLAIN or PROFILE return their plan anyway
+     */
+    public CypherResult cypherQuery(String query, String version, Map<String, Object> params, PlanMode planMode) {
         // query = replaceIndex(query);
-        if (version==null || version.isEmpty() || startsWithCypher(query)) return cypherQuery(query,params);
-        return cypherQuery("CYPHER "+version+" "+query, params);
+        if (version==null || version.isEmpty() || startsWithCypher(query)) return cypherQuery(query,params,planMode);
+        return cypherQuery("CYPHER "+version+" "+query, params, planMode);
     }
     public CypherResult cypherQuery(String query, String version) {
         return cypherQuery(query,version,null);
@@ -197,36 +304,207 @@ public class CypherQueryExecutor {
         return q.length() > CYPHER_LENGTH && q.substring(0, CYPHER_LENGTH).equalsIgnoreCase("cypher");
     }
 
-    private CypherResult cypherQuery(String query, Map<String, Object> params) {
-        boolean canProfile = canProfileQuery(query);
-        try {
-            return doExecuteQuery(query, params, canProfile);
-        } catch (NotImplementedError |AssertionError e) {
-            return doExecuteQuery(query, params, false);
+    private CypherResult cypherQuery(String query, Map<String, Object> params, PlanMode planMode) {
+        checkQuery(query);
+        CypherStatement statement = CypherStatement.of(query);
+        PlanMode mode = statement.canProfile() && !statement.hasPlan() ? planMode : PlanMode.NONE;
+        return TenantIsolation.as(tenant, () -> {
+            try {
+                return doExecuteQuery(query, params, mode);
+            } catch (NotImplementedError |AssertionError e) {
+                return doExecuteQuery(query, params, PlanMode.NONE);
+            }
+        });
+    }
+
+    private void checkQuery(String query) {
+        ApocProcedures.registerUsed(gdb, query);
+        if (tenant != null && isSchemaQuery(query)) {
+            throw new TenantIsolation.IsolationException("Indexes and constraints are not available in a shared database");
         }
+        if (tenant != null) TenantIsolation.checkScopable(query);
     }
 
-    private CypherResult doExecuteQuery(String query, Map<String, Object> params, boolean canProfile) {
+    /**
+     * Writes the rows to the stream while they are read from the result, the result is not kept.
+     * @return the query statistics, they are written to the stream too
+     */
+    public Map<String, Object> streamQuery(String query, String version, Map<String, Object> params, ResultStream out) {
+        String statement = versioned(query, version);
+        checkQuery(statement);
+        long time = System.currentTimeMillis();
+        return TenantIsolation.as(tenant, () -> execute(statement, params, PlanMode.NONE, (result, watched) -> {
+            try {
+                List<String> columns = result.columns();
+                out.columns(columns);
+                int rows = 0;
+                while (result.hasNext()) {
+                    Map<String, Object> row = result.next();
+                    if (tenant != null && !TenantIsolation.owns(tenant, row)) continue;
+                    if (watched != null) watched.checkRows(rows + 1);
+                    out.row(CypherResult.toJson(columns, row));
+                    rows++;
+                }
+                return rows;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, (result, rows) -> {
+            Map<String, Object> stats = CypherResult.statistics(rows, System.currentTimeMillis() - time, result.getQueryStatistics());
+            try {
+                out.stats(stats);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return stats;
+        }));
+    }
+
+    /**
+     * Runs the query without keeping or converting its rows, for statements whose result is not needed.
+     * @return the query statistics
+     */
+    public Map<String, Object> executeQuery(String query, String version, Map<String, Object> params) {
+        String statement = versioned(query, version);
+        checkQuery(statement);
+        long time = System.currentTimeMillis();
+        return TenantIsolation.as(tenant, () -> execute(statement, params, PlanMode.NONE, (result, watched) -> {
+            final int[] rows = {0};
+            if (tenant == null) {
+                result.accept(row -> {
+                    rows[0]++;
+                    return true;
+                });
+            } else {
+                while (result.hasNext()) {
+                    if (TenantIsolation.owns(tenant, result.next())) rows[0]++;
+                }
+            }
+            return rows[0];
+        }, (result, rows) -> CypherResult.statistics(rows, System.currentTimeMillis() - time, result.getQueryStatistics())));
+    }
+
+    private String versioned(String query, String version) {
+        return version == null || version.isEmpty() || startsWithCypher(query) ? query : "CYPHER " + version + " " + query;
+    }
+
+    static boolean isSchemaQuery(String query) {
+        return CypherStatement.of(query).isSchema();
+    }
+
+    private CypherResult doExecuteQuery(String query, Map<String, Object> params, PlanMode mode) {
+        long start = System.currentTimeMillis();
+        boolean hasPlan = mode != PlanMode.NONE || CypherStatement.of(query).hasPlan();
+        return execute(query, params, mode, (result, watched) -> {
+            final Collection<Map<String, Object>> data = rows(result, watched);
+            if (tenant != null) data.removeIf(row -> !TenantIsolation.owns(tenant, row));
+            return data;
+        }, (result, data) -> new CypherResult(result.columns(), data, result.getQueryStatistics(), System.currentTimeMillis() - start,
+                hasPlan ? result.getExecutionPlanDescription() : null, prettify(query), gdb).renderIfDeleted());
+    }
+
+    // reads the result while a periodic commit runs without the outer transaction, finishes with it
+    private <T, R> R execute(String query, Map<String, Object> params, PlanMode mode,
+                             BiFunction<Result, SessionQuota.Query, T> read, BiFunction<Result, T, R> finish) {
+        String statement = tenant == null ? query : TenantIsolation.scope(tenant, query);
+        CypherLiterals.Parameterized parameterized = parameterize(statement, params);
+        PlanFingerprints.record(statement, parameterized == null ? statement : parameterized.query);
+        if (parameterized != null) {
+            statement = parameterized.query;
+            params = parameterized.params;
+        }
         params = params == null ? Collections.<String,Object>emptyMap() : params;
-        long time=System.currentTimeMillis();
         Transaction tx = gdb.beginTx();
         KernelTransaction resumeTx;
+        SessionQuota.Query watched = null;
+        QueryCancellation cancellation = QueryCancellation.current();
+        KernelTransaction cancelled = null;
         try {
-            resumeTx = suspendTx(query);
-            Result result = canProfile ? gdb.execute("PROFILE "+query,params) : gdb.execute(query,params);
-            final Collection<Map<String, Object>> data = Iterators.asCollection(result);
-            time = System.currentTimeMillis() - time;
-            resumeTransaction(resumeTx);
-            CypherResult cypherResult = new CypherResult(result.columns(), data, result.getQueryStatistics(), time, canProfile ? result.getExecutionPlanDescription() : null, prettify(query));
-            result.close();
-            tx.success();
-            return cypherResult;
+            try {
+                KernelTransaction kernelTx = threadToStatementContextBridge.getKernelTransactionBoundToThisThread(true);
+                if (cancellation != null) cancelled = cancellation.watch(kernelTx);
+                if (quota != null) watched = quota.start(gdb, kernelTx, tenant);
+                resumeTx = suspendTx(query);
+                Result result = gdb.execute(mode.apply(statement), params);
+                T data = read.apply(result, watched);
+                resumeTransaction(resumeTx);
+                R value = finish.apply(result, data);
+                result.close();
+                tx.success();
+                return value;
+            } finally {
+                tx.close();
+            }
+        } catch (RuntimeException e) {
+            RuntimeException failure = watched == null ? e : watched.failure(e);
+            throw failure == e && cancellation != null ? cancellation.failure(e) : failure;
         } finally {
-            tx.close();
+            if (watched != null) watched.close();
+            if (cancellation != null) cancellation.unwatch(cancelled);
             awaitIndexOnline(query);
         }
     }
 
+    // the statement with parameters for its literals, if that shape compiles
+    private CypherLiterals.Parameterized parameterize(String statement, Map<String, Object> params) {
+        if (!CypherLiterals.ENABLED) return null;
+        CypherLiterals.Parameterized parameterized = CypherLiterals.parameterize(statement, params);
+        if (parameterized == null) return null;
+        Boolean compiles = CypherLiterals.isVerified(parameterized.query);
+        if (compiles == null) {
+            compiles = compiles(parameterized);
+            CypherLiterals.verified(parameterized.query, compiles);
+        }
+        return compiles ? parameterized : null;
+    }
+
+    // a statement that fails to compile fails the transaction it runs in, so it is explained in a transaction of its own
+    private boolean compiles(CypherLiterals.Parameterized parameterized) {
+        KernelTransaction outer = null;
+        if (threadToStatementContextBridge.hasTransaction()) {
+            outer = threadToStatementContextBridge.getKernelTransactionBoundToThisThread(true);
+            threadToStatementContextBridge.unbindTransactionFromCurrentThread();
+        }
+        try (Transaction tx = gdb.beginTx()) {
+            gdb.execute(PlanMode.EXPLAIN.apply(parameterized.query), parameterized.params).close();
+            tx.success();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        } finally {
+            resumeTransaction(outer);
+        }
+    }
+
+    /**
+     * Runs the work in one transaction, queries executed by it join the transaction and are committed together.
+     * The quota is checked for the whole transaction when it commits.
+     */
+    public <T> T inTransaction(Supplier<T> work) {
+        SessionQuota.Query watched = null;
+        try (Transaction tx = gdb.beginTx()) {
+            if (quota != null) watched = quota.start(gdb, threadToStatementContextBridge.getKernelTransactionBoundToThisThread(true), tenant);
+            T result = work.get();
+            tx.success();
+            return result;
+        } catch (RuntimeException e) {
+            throw watched == null ? e : watched.failure(e);
+        } finally {
+            if (watched != null) watched.close();
+        }
+    }
+
+    // stops reading a result that has more rows than the quota allows
+    private Collection<Map<String, Object>> rows(Result result, SessionQuota.Query watched) {
+        if (watched == null) return Iterators.asCollection(result);
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        while (result.hasNext()) {
+            rows.add(result.next());
+            watched.checkRows(rows.size());
+        }
+        return rows;
+    }
+
     private void awaitIndexOnline(String query) {
         if (!isIndexQuery(query)) return;
         try (Transaction tx = gdb.beginTx()) {
@@ -255,8 +533,6 @@ public class CypherQueryExecutor {
     }
 
     boolean canProfileQuery(String query) {
-//        return false;
-        Matcher matcher = CANNOT_PROFILE_PATTERN.matcher(query);
-        return !matcher.find();
+        return CypherStatement.of(query).canProfile();
     }
 }
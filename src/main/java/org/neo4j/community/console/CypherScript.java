@@ -0,0 +1,123 @@
+package org.neo4j.community.console;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The statements of a cypher script, separated by semicolons outside of strings, backticked names and comments.
+ * The script is read while it is iterated, so only the current statement is held in memory.
+ * Blank and comment only statements are skipped.
+ */
+class CypherScript implements Iterable<String> {
+
+    private final String script;
+    private Reader reader;
+
+    CypherScript(String script) {
+        this.script = script;
+    }
+
+    // can only be iterated once
+    CypherScript(Reader reader) {
+        this.script = null;
+        this.reader = reader;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        if (script != null) return new Statements(new StringReader(script));
+        if (reader == null) throw new IllegalStateException("The script was read already");
+        Reader current = reader;
+        reader = null;
+        return new Statements(current instanceof BufferedReader ? current : new BufferedReader(current));
+    }
+
+    private static class Statements implements Iterator<String> {
+        private final Reader reader;
+        private final StringBuilder statement = new StringBuilder();
+        private int peeked = -2;
+        private String next;
+
+        private Statements(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) next = readStatement();
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            String result = next;
+            next = null;
+            return result;
+        }
+
+        private String readStatement() {
+            statement.setLength(0);
+            boolean content = false;
+            int c;
+            while ((c = read()) != -1) {
+                if (c == ';') {
+                    if (content) return statement.toString().trim();
+                    statement.setLength(0);
+                    continue;
+                }
+                statement.append((char) c);
+                if (c == '\'' || c == '"' || c == '`') {
+                    quoted(c);
+                    content = true;
+                } else if (c == '/' && (peek() == '/' || peek() == '*')) {
+                    comment(read());
+                } else if (!Character.isWhitespace(c)) {
+                    content = true;
+                }
+            }
+            return content ? statement.toString().trim() : null;
+        }
+
+        private void quoted(int quote) {
+            int c;
+            while ((c = read()) != -1) {
+                statement.append((char) c);
+                if (c == quote) return;
+                if (c == '\\' && quote != '`' && (c = read()) != -1) statement.append((char) c);
+            }
+        }
+
+        private void comment(int type) {
+            statement.append((char) type);
+            int c, last = 0;
+            while ((c = read()) != -1) {
+                statement.append((char) c);
+                if (type == '/' && c == '\n') return;
+                if (type == '*' && last == '*' && c == '/') return;
+                last = c;
+            }
+        }
+
+        private int peek() {
+            if (peeked == -2) peeked = readChar();
+            return peeked;
+        }
+
+        private int read() {
+            if (peeked == -2) return readChar();
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+
+        private int readChar() {
+            try {
+                return reader.read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
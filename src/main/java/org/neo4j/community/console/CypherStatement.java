@@ -0,0 +1,217 @@
+package org.neo4j.community.console;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * What a cypher statement does, found in one pass over its keywords. String literals, backtick quoted names, comments,
+ * property keys, map keys, labels and parameters are skipped, so {@code "MATCH (n {text:'delete me'}) RETURN n.set"} is read-only.
+ * The descriptors of the last {@code console.statements.cached} statements are kept by query text,
+ * large init scripts are parsed again each time instead of being held in memory.
+ */
+class CypherStatement {
+
+    static final int MAX_CACHED = (int) Util.setting("console.statements.cached", 1000);
+    static final int MAX_CACHED_LENGTH = 16 * 1024;
+
+    private static final Set<String> WRITES = new HashSet<>(Arrays.asList("CREATE", "DROP", "ADD", "REMOVE", "MERGE", "DELETE", "SET"));
+    private static final Set<String> CLAUSES = new HashSet<>(Arrays.asList("START", "MATCH", "RETURN", "WHERE", "SKIP", "LIMIT",
+            "WITH", "UNWIND", "FOREACH", "CALL"));
+    private static final Set<String> SCHEMA = new HashSet<>(Arrays.asList("INDEX", "CONSTRAINT"));
+    // built-in procedures that only read, any other procedure may write
+    private static final Set<String> READ_PROCEDURES = new HashSet<>(Arrays.asList("db.labels", "db.relationshiptypes", "db.propertykeys",
+            "db.indexes", "db.constraints", "db.schema", "db.schema.visualization", "db.schema.nodetypeproperties", "db.schema.reltypeproperties",
+            "db.index.fulltext.querynodes", "db.index.fulltext.queryrelationships", "dbms.procedures", "dbms.functions", "dbms.components"));
+
+    private static final Map<String, CypherStatement> cache = Collections.synchronizedMap(new LinkedHashMap<String, CypherStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CypherStatement> eldest) {
+            return size() > MAX_CACHED;
+        }
+    });
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private boolean writes;
+    private boolean procedureCall;
+    private boolean writingProcedureCall;
+    private boolean createsSchema;
+    private boolean schema;
+    private boolean periodicCommit;
+    private boolean cypher;
+    private String first;
+    private boolean onlyCreates = true;
+    private boolean plan;
+    private boolean explain;
+
+    private CypherStatement() {
+    }
+
+    static CypherStatement of(String query) {
+        if (query.length() > MAX_CACHED_LENGTH) return parse(query);
+        CypherStatement statement = cache.get(query);
+        if (statement != null) {
+            hits.incrementAndGet();
+            return statement;
+        }
+        misses.incrementAndGet();
+        statement = parse(query);
+        cache.put(query, statement);
+        return statement;
+    }
+
+    static CypherStatement parse(String query) {
+        CypherStatement statement = new CypherStatement();
+        String before = null, previous = null;
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            int end = skipLiteral(query, i);
+            if (end > i) {
+                before = previous = null;
+                i = end;
+                continue;
+            }
+            if (!Character.isJavaIdentifierStart(c) || c == '$') {
+                if (!Character.isWhitespace(c)) before = previous = null;
+                i = skipName(query, i + 1, c == '.' || c == ':' || c == '$');
+                continue;
+            }
+            end = skipName(query, i, true);
+            if (isKey(query, end)) {
+                before = previous = null;
+            } else {
+                String word = query.substring(i, end).toUpperCase();
+                statement.add(before, previous, word);
+                if (word.equals("CALL")) statement.call(procedureName(query, end));
+                before = previous;
+                previous = word;
+            }
+            i = end;
+        }
+        return statement;
+    }
+
+    private void add(String before, String previous, String word) {
+        if (first == null) first = word;
+        if (!cypher && (word.equals("EXPLAIN") || word.equals("PROFILE"))) plan = true;
+        if (!cypher && word.equals("EXPLAIN")) explain = true;
+        if (WRITES.contains(word)) writes = cypher = true;
+        else if (CLAUSES.contains(word)) cypher = true;
+        if (!word.equals("CREATE") && !word.equals("RETURN") && (WRITES.contains(word) || CLAUSES.contains(word))) onlyCreates = false;
+        if (word.equals("CALL")) procedureCall = true;
+        if (SCHEMA.contains(word) && ("CREATE".equals(previous) || "DROP".equals(previous))) {
+            schema = true;
+            createsSchema |= previous.equals("CREATE");
+        }
+        if (word.equals("COMMIT") && "PERIODIC".equals(previous) && "USING".equals(before)) periodicCommit = true;
+    }
+
+    private void call(String procedure) {
+        if (!READ_PROCEDURES.contains(procedure)) writingProcedureCall = true;
+    }
+
+    // the qualified name after CALL in lower case
+    private static String procedureName(String query, int i) {
+        while (i < query.length() && Character.isWhitespace(query.charAt(i))) i++;
+        int start = i;
+        while (i < query.length() && (Character.isJavaIdentifierPart(query.charAt(i)) || query.charAt(i) == '.') && query.charAt(i) != '$') i++;
+        return query.substring(start, i).toLowerCase();
+    }
+
+    /**
+     * @return the end of the string, backtick quoted name or comment starting at i, or i if there is none
+     */
+    static int skipLiteral(String query, int i) {
+        char c = query.charAt(i);
+        if (c == '\'' || c == '"' || c == '`') {
+            int end = i + 1;
+            while (end < query.length() && query.charAt(end) != c) {
+                if (query.charAt(end) == '\\' && c != '`') end++;
+                end++;
+            }
+            return Math.min(end + 1, query.length());
+        }
+        if (query.startsWith("//", i)) {
+            int end = query.indexOf('\n', i);
+            return end == -1 ? query.length() : end;
+        }
+        if (query.startsWith("/*", i)) {
+            int end = query.indexOf("*/", i + 2);
+            return end == -1 ? query.length() : end + 2;
+        }
+        return i;
+    }
+
+    // a property key, label, relationship type or parameter name after . : or $ is no keyword
+    private static int skipName(String query, int i, boolean name) {
+        if (!name) return i;
+        while (i < query.length() && Character.isJavaIdentifierPart(query.charAt(i)) && query.charAt(i) != '$') i++;
+        return i;
+    }
+
+    // a map key is followed by a colon, keywords never are
+    private static boolean isKey(String query, int end) {
+        while (end < query.length() && Character.isWhitespace(query.charAt(end))) end++;
+        return end < query.length() && query.charAt(end) == ':';
+    }
+
+    /**
+     * Procedures may write, so calls are treated as mutating too, except for the built-in ones that only read,
+     * like {@code db.labels()} or {@code db.indexes()}.
+     */
+    boolean isMutating() {
+        return writes || writingProcedureCall;
+    }
+
+    boolean isReadOnly() {
+        return !isMutating();
+    }
+
+    boolean isProcedureCall() {
+        return procedureCall;
+    }
+
+    boolean isSchema() {
+        return schema;
+    }
+
+    // the statement creates an index or constraint that has to come online
+    boolean createsSchema() {
+        return createsSchema;
+    }
+
+    boolean isPeriodicCommit() {
+        return periodicCommit;
+    }
+
+    boolean isCypher() {
+        return cypher;
+    }
+
+    // a plain CREATE, that can run in one transaction with its neighbours
+    boolean isSimpleCreate() {
+        return "CREATE".equals(first) && onlyCreates && !schema && !periodicCommit;
+    }
+
+    // the statement asks for its plan itself with EXPLAIN or PROFILE
+    boolean hasPlan() {
+        return plan;
+    }
+
+    // the statement is only planned, not run
+    boolean isExplain() {
+        return explain;
+    }
+
+    boolean canProfile() {
+        return !periodicCommit;
+    }
+
+    static Map<String, Object> getMetrics() {
+        return map("cached", cache.size(), "maxCached", MAX_CACHED, "hits", hits.get(), "misses", misses.get());
+    }
+}
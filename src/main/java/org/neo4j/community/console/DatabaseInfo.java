@@ -1,6 +1,10 @@
 package org.neo4j.community.console;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.mockfs.EphemeralFileSystemAbstraction;
+
+import java.io.File;
+import java.util.UUID;
 
 /**
 * @author mh
@@ -8,20 +12,50 @@ import org.neo4j.graphdb.GraphDatabaseService;
 */
 public class DatabaseInfo {
 
+    static final boolean SHARED = Util.setting("console.tenants", false);
+
     private boolean sandbox;
+    private final boolean shared;
     private final GraphDatabaseService database;
 
     public DatabaseInfo(GraphDatabaseService database, boolean sandbox) {
+        this(database, sandbox, false);
+    }
+
+    private DatabaseInfo(GraphDatabaseService database, boolean sandbox, boolean shared) {
         this.database = database;
         this.sandbox = sandbox;
+        this.shared = shared;
     }
 
     public static DatabaseInfo expose(GraphDatabaseService database) {
         return new DatabaseInfo(database,false);
     }
 
+    /**
+     * A database per session, or with {@code console.tenants=true} one in-memory database shared by all sessions.
+     */
     public static DatabaseInfo sandbox() {
-        return new DatabaseInfo(null,true);
+        return SHARED ? shared() : new DatabaseInfo(null,true);
+    }
+
+    /**
+     * All sessions share the database, each one as a tenant that only sees and changes its own data.
+     * @see TenantIsolation
+     */
+    public static DatabaseInfo shared(GraphDatabaseService database) {
+        return new DatabaseInfo(TenantIsolation.install(database), false, true);
+    }
+
+    public static DatabaseInfo shared() {
+        try {
+            File storeDir = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
+            return shared(Neo4jService.createInMemoryDatabase(new EphemeralFileSystemAbstraction(), storeDir));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException("Error creating the shared database", t);
+        }
     }
 
     public GraphDatabaseService getDatabase() {
@@ -32,6 +66,10 @@ public class DatabaseInfo {
         return sandbox;
     }
 
+    public boolean isShared() {
+        return shared;
+    }
+
     public boolean shouldCreateNew() {
         return sandbox || database == null;
     }
@@ -42,6 +80,6 @@ public class DatabaseInfo {
 
     @Override
     public String toString() {
-        return String.format("own-db %s import-db %s source db: %s",shouldCreateNew(), shouldImport(), database);
+        return String.format("own-db %s import-db %s shared-db %s source db: %s",shouldCreateNew(), shouldImport(), shared, database);
     }
 }
@@ -0,0 +1,172 @@
+package org.neo4j.community.console;
+
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Keeps a number of booted in-memory databases (with the apoc procedures registered) around,
+ * so that new sessions don't have to wait for the database startup.
+ * The pool is refilled by a background thread, one database per refill interval.
+ */
+class DatabasePool {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(DatabasePool.class);
+
+    static final boolean ENABLED = Util.setting("console.pool.enabled", true);
+    static final int MIN_SIZE = (int) Util.setting("console.pool.min", 2);
+    static final int MAX_SIZE = (int) Util.setting("console.pool.max", 8);
+    static final long REFILL_MILLIS = Util.setting("console.pool.refill", 500);
+
+    private final int minSize;
+    private final int maxSize;
+    private final long refillMillis;
+
+    private final BlockingDeque<Neo4jService> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger target = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong missesSinceRefill = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    private final AtomicLong refillTime = new AtomicLong();
+    private final AtomicLong lastRefillTime = new AtomicLong();
+    private final AtomicLong maxRefillTime = new AtomicLong();
+    private ScheduledExecutorService refiller;
+    private volatile boolean paused;
+
+    DatabasePool() {
+        this(MIN_SIZE, MAX_SIZE, REFILL_MILLIS);
+    }
+
+    DatabasePool(int minSize, int maxSize, long refillMillis) {
+        if (minSize < 0 || maxSize < minSize) throw new IllegalArgumentException("Invalid pool size min " + minSize + " max " + maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.refillMillis = refillMillis;
+        this.target.set(minSize);
+    }
+
+    public synchronized DatabasePool start() {
+        if (refiller != null) return this;
+        refiller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "database-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refiller.scheduleWithFixedDelay(this::refill, 0, refillMillis, TimeUnit.MILLISECONDS);
+        LOG.warn("Started database pool min " + minSize + " max " + maxSize + " refill every " + refillMillis + " ms");
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (refiller != null) {
+            refiller.shutdownNow();
+            refiller = null;
+        }
+        Neo4jService service;
+        while ((service = idle.pollFirst()) != null) {
+            service.stop();
+        }
+    }
+
+    /**
+     * Stops pre-starting databases, e.g. while memory is short. Taking from the pool still works.
+     */
+    public void pause() {
+        if (!paused) LOG.warn("Pausing database pool");
+        paused = true;
+    }
+
+    public void resume() {
+        if (paused) LOG.warn("Resuming database pool");
+        paused = false;
+    }
+
+    /**
+     * Stops all idle databases of a paused pool.
+     */
+    public void drain() {
+        Neo4jService service;
+        while (paused && (service = idle.pollLast()) != null) {
+            service.stop();
+        }
+    }
+
+    /**
+     * @return a pre-started service or null if the pool is currently empty, then the caller has to create one itself
+     */
+    public Neo4jService take() {
+        Neo4jService service = idle.pollFirst();
+        if (service != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            missesSinceRefill.incrementAndGet();
+        }
+        return service;
+    }
+
+    /**
+     * Returns an unused service to the pool.
+     * @return false if the pool is already full, then the caller is responsible for stopping the service
+     */
+    public boolean offer(Neo4jService service) {
+        if (service == null || paused || idle.size() >= maxSize) return false;
+        return idle.offerFirst(service);
+    }
+
+    void refill() {
+        try {
+            adjustTarget();
+            if (paused || idle.size() >= target.get()) return;
+            long start = System.currentTimeMillis();
+            Neo4jService service = create();
+            long time = System.currentTimeMillis() - start;
+            refills.incrementAndGet();
+            refillTime.addAndGet(time);
+            lastRefillTime.set(time);
+            maxRefillTime.accumulateAndGet(time, Math::max);
+            if (!offer(service)) service.stop();
+        } catch (Throwable t) {
+            refillFailures.incrementAndGet();
+            LOG.error("Error refilling database pool", t);
+        }
+    }
+
+    // grow towards the max size while sessions are requested faster than we refill, shrink back to min when idle
+    private void adjustTarget() {
+        long missed = missesSinceRefill.getAndSet(0);
+        if (missed > 0) {
+            target.set((int) Math.min(maxSize, target.get() + missed));
+        } else if (target.get() > minSize && idle.size() >= target.get()) {
+            target.decrementAndGet();
+        }
+    }
+
+    protected Neo4jService create() throws Throwable {
+        return new Neo4jService();
+    }
+
+    public int size() {
+        return idle.size();
+    }
+
+    public Map<String, Object> getMetrics() {
+        long refillCount = refills.get();
+        return map("size", idle.size(), "target", target.get(), "paused", paused, "min", minSize, "max", maxSize,
+                "hits", hits.get(), "misses", misses.get(),
+                "refills", refillCount, "refillFailures", refillFailures.get(),
+                "lastRefillMillis", lastRefillTime.get(), "maxRefillMillis", maxRefillTime.get(),
+                "avgRefillMillis", refillCount == 0 ? 0 : refillTime.get() / refillCount);
+    }
+}
@@ -1,18 +1,18 @@
 package org.neo4j.community.console;
 
-import com.heroku.api.HerokuAPI;
 import org.eclipse.jetty.server.Server;
 
 /**
+ * Last resort when the console can't recover in-process, restarts it with the configured {@link RestartHook}.
+ * Failures of single sessions are recovered by {@link SessionService#recover}.
+ *
  * @author mh
  * @since 21.01.15
  */
 public class Halt {
 
-    private static final String APP_NAME = System.getenv("APP_NAME");
-    private static final String TOKEN = System.getenv("HEROKU_TOKEN");
-
     private static Server server;
+    private static volatile RestartHook restartHook = RestartHook.fromSettings();
 
     public static void halt(String message) {
         try {
@@ -22,22 +22,17 @@ public class Halt {
         } catch (Throwable t) {
             // ignore
         } finally {
-            restart();
-//            try {
-//                server.stop();
-//            } catch (Exception e) {
-//                System.err.println("Error during stopping the server");
-//            } finally {
-//                // System.exit(0);
-//                restart();
-//            }
+            restartHook.restart(message);
         }
     }
 
-    private static void restart() {
-        System.err.println("Restarting Heroku Dyno");
-        System.err.flush();
-        new HerokuAPI(TOKEN).restartDynos(APP_NAME);
+    /**
+     * @return the previous hook
+     */
+    static RestartHook setRestartHook(RestartHook hook) {
+        RestartHook previous = restartHook;
+        restartHook = hook;
+        return previous;
     }
 
     public static void setServer(Server server) {
@@ -0,0 +1,173 @@
+package org.neo4j.community.console;
+
+import org.slf4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Keeps the estimated memory of all sessions within a budget of the heap.
+ * A session is estimated by a fixed overhead for a started database (page cache, caches, query plans),
+ * the size of its in-memory store files and the size of its last result. Started databases without a session,
+ * like the pool and the spares of the store images, count with the same overhead, the store images with their size. Summing the store files of every session
+ * on each admission is too slow, so the estimate of a session is reused for {@code console.memory.estimate.millis}.
+ * <p>
+ * When a new session doesn't fit into the budget, least recently used idle sessions are evicted first.
+ * If that doesn't free enough memory the session creation waits a bit for other sessions to end and is
+ * rejected afterwards, instead of running the whole process out of memory. While it waits other requests
+ * can use its permit of the {@link ConcurrencyLimiter}.
+ */
+class MemoryGovernor {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(MemoryGovernor.class);
+
+    static final int BUDGET_PERCENT = (int) Util.setting("console.memory.budget", 70);
+    static final long SESSION_OVERHEAD = Util.setting("console.memory.session", 24 * 1024 * 1024);
+    static final long MIN_IDLE_MILLIS = Util.setting("console.memory.idle", 30 * 1000);
+    static final long ADMISSION_WAIT_MILLIS = Util.setting("console.memory.wait", 2000);
+    static final long ESTIMATE_MILLIS = Util.setting("console.memory.estimate.millis", 1000);
+    private static final long WAIT_INTERVAL_MILLIS = 100;
+    private static final long VALUE_BYTES = 64; // per value of a result row
+
+    private final long budget;
+    private final Map<String, Neo4jService> sessions;
+    private final IntSupplier idleDatabases;
+    private final LongSupplier sharedBytes;
+    private final BiPredicate<String, Neo4jService> evict;
+    // the estimate of a session and when it was taken
+    private final Map<Neo4jService, long[]> estimates = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * @param budget         bytes available to all sessions
+     * @param sessions       the live sessions by id
+     * @param idleDatabases  number of started databases not yet used by a session (e.g. the pool and the spares)
+     * @param sharedBytes    bytes held for all sessions outside of a database (e.g. the store images)
+     * @param evict          removes and releases a session, false if it was already gone
+     */
+    MemoryGovernor(long budget, Map<String, Neo4jService> sessions, IntSupplier idleDatabases, LongSupplier sharedBytes,
+                   BiPredicate<String, Neo4jService> evict) {
+        this.budget = budget;
+        this.sessions = sessions;
+        this.idleDatabases = idleDatabases;
+        this.sharedBytes = sharedBytes;
+        this.evict = evict;
+    }
+
+    static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 100 * BUDGET_PERCENT;
+    }
+
+    static long estimate(Neo4jService service) {
+        long overhead = service.doesOwnDatabase() && !service.isPassivated() ? SESSION_OVERHEAD : 0;
+        // the last result may be counted twice when it is cached, the estimate rather errs on the high side
+        return overhead + service.getStoreBytes() + service.getLastResultBytes() + service.getCachedResultBytes();
+    }
+
+    // the rows of the result, the text table and json are only rendered when requested and not counted
+    static long resultBytes(CypherQueryExecutor.CypherResult result) {
+        return (long) result.getRowCount() * Math.max(1, result.getColumns().size()) * VALUE_BYTES;
+    }
+
+    private long cachedEstimate(Neo4jService service) {
+        long now = System.currentTimeMillis();
+        long[] cached = estimates.get(service);
+        if (cached != null && now - cached[1] < ESTIMATE_MILLIS) return cached[0];
+        long estimate = estimate(service);
+        estimates.put(service, new long[]{estimate, now});
+        return estimate;
+    }
+
+    public long used() {
+        long used = (long) idleDatabases.getAsInt() * SESSION_OVERHEAD + sharedBytes.getAsLong();
+        for (Neo4jService service : sessions.values()) {
+            used += cachedEstimate(service);
+        }
+        return used;
+    }
+
+    /**
+     * Makes room for a new session, evicting idle sessions if necessary.
+     * @throws SessionRejectedException if the budget is still exhausted after waiting
+     */
+    public void admit() {
+        long deadline = System.currentTimeMillis() + ADMISSION_WAIT_MILLIS;
+        while (true) {
+            long missing = used() + SESSION_OVERHEAD - budget;
+            if (missing <= 0 || evictIdle(missing) >= missing) {
+                admitted.incrementAndGet();
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                rejected.incrementAndGet();
+                throw new SessionRejectedException("The console is at its memory limit with " + sessions.size() + " active sessions, please try again in a minute.",
+                        SessionRejectedException.SERVICE_UNAVAILABLE, 60);
+            }
+            try {
+                ConcurrencyLimiter.getInstance().sleep(WAIT_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.incrementAndGet();
+                throw new SessionRejectedException("Interrupted while waiting for memory");
+            }
+        }
+    }
+
+    /**
+     * Evicts sessions that were not used for at least {@link #MIN_IDLE_MILLIS}, least recently used first.
+     * @return the estimated bytes freed
+     */
+    public long evictIdle(long bytes) {
+        return evict(bytes, System.currentTimeMillis() - MIN_IDLE_MILLIS);
+    }
+
+    /**
+     * Evicts least recently used sessions regardless of their idle time, for when the heap is nearly exhausted.
+     */
+    public long evictLeastRecentlyUsed(long bytes) {
+        return evict(bytes, Long.MAX_VALUE);
+    }
+
+    private long evict(long bytes, long idleBefore) {
+        // sort by a snapshot of the access times, they keep changing while we sort
+        SortedMap<Long, List<Map.Entry<String, Neo4jService>>> candidates = new TreeMap<>();
+        for (Map.Entry<String, Neo4jService> entry : sessions.entrySet()) {
+            long lastAccess = entry.getValue().getLastAccess();
+            if (lastAccess < idleBefore) candidates.computeIfAbsent(lastAccess, k -> new ArrayList<>()).add(entry);
+        }
+        long freed = 0;
+        for (Map.Entry<String, Neo4jService> entry : flatten(candidates.values())) {
+            if (freed >= bytes) break;
+            long size = cachedEstimate(entry.getValue());
+            if (!evict.test(entry.getKey(), entry.getValue())) continue;
+            estimates.remove(entry.getValue());
+            freed += size;
+            evicted.incrementAndGet();
+            evictedBytes.addAndGet(size);
+            LOG.warn("Evicted session " + entry.getKey() + " with an estimated " + size + " bytes");
+        }
+        return freed;
+    }
+
+    private static <T> List<T> flatten(Collection<List<T>> lists) {
+        List<T> result = new ArrayList<>();
+        for (List<T> list : lists) {
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    public Map<String, Object> getMetrics() {
+        return map("budget", budget, "used", used(), "admitted", admitted.get(), "rejected", rejected.get(),
+                "evicted", evicted.get(), "evictedBytes", evictedBytes.get());
+    }
+}
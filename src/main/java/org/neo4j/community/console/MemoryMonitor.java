@@ -0,0 +1,245 @@
+package org.neo4j.community.console;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.slf4j.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Watches the old generation occupancy after each garbage collection, using the notifications of the
+ * garbage collectors and the collection usage threshold of the old generation pool.
+ * Depending on the occupancy after the collection the {@link Reaction} is asked to react in tiers,
+ * see {@link Pressure}. If the heap stays full after the most drastic reaction the process is halted.
+ */
+class MemoryMonitor {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(MemoryMonitor.class);
+
+    private static final int HALT_AFTER = 2;
+
+    enum Pressure {
+        NORMAL(0),
+        PAUSE_POOL(Util.setting("console.memory.pause", 60)),
+        DROP_CACHES(Util.setting("console.memory.drop", 70)),
+        EVICT_IDLE(Util.setting("console.memory.evict", 80)),
+        REFUSE_SESSIONS(Util.setting("console.memory.refuse", 90)),
+        HALT(Util.setting("console.memory.halt", 95));
+
+        final long percent;
+
+        Pressure(long percent) {
+            this.percent = percent;
+        }
+
+        static Pressure of(long percent) {
+            Pressure result = NORMAL;
+            for (Pressure pressure : values()) {
+                if (percent >= pressure.percent) result = pressure;
+            }
+            return result;
+        }
+
+        boolean atLeast(Pressure other) {
+            return compareTo(other) >= 0;
+        }
+    }
+
+    interface Reaction {
+        /**
+         * @param excessBytes bytes to free to get the occupancy below the {@link Pressure#EVICT_IDLE} threshold
+         */
+        void react(Pressure pressure, long excessBytes);
+    }
+
+    private final MemoryPoolMXBean oldGen;
+    private final Reaction reaction;
+    private final Executor executor;
+    private final Map<NotificationEmitter, NotificationListener> listeners = new HashMap<>();
+
+    private volatile Pressure pressure = Pressure.NORMAL;
+    private int haltingCollections;
+    private volatile long usedAfterGc;
+    private volatile long maxAfterGc;
+    private volatile long allocationRate;
+    private long lastUsedAfterGc = -1;
+    private long lastGcEnd = -1;
+    private final AtomicLong collections = new AtomicLong();
+    private final AtomicLong pauseTime = new AtomicLong();
+    private final AtomicLong maxPause = new AtomicLong();
+    private final AtomicLong lastPause = new AtomicLong();
+    private final AtomicLong reactions = new AtomicLong();
+
+    MemoryMonitor(Reaction reaction) {
+        this(findOldGen(), reaction, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "memory-monitor");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    MemoryMonitor(MemoryPoolMXBean oldGen, Reaction reaction, Executor executor) {
+        this.oldGen = oldGen;
+        this.reaction = reaction;
+        this.executor = executor;
+    }
+
+    // the heap pool with a collection usage threshold that survives the young collections, e.g. "PS Old Gen" or "G1 Old Gen"
+    private static MemoryPoolMXBean findOldGen() {
+        MemoryPoolMXBean result = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            if (result == null || pool.getUsage().getMax() > result.getUsage().getMax()) result = pool;
+        }
+        return result;
+    }
+
+    public synchronized MemoryMonitor start() {
+        if (oldGen == null) {
+            LOG.warn("No old generation memory pool found, memory monitoring disabled");
+            return this;
+        }
+        if (!listeners.isEmpty()) return this;
+        long max = maxOf(oldGen.getUsage());
+        if (max > 0) {
+            oldGen.setCollectionUsageThreshold(max / 100 * Pressure.PAUSE_POOL.percent);
+            listen((NotificationEmitter) ManagementFactory.getMemoryMXBean(), (notification, handback) -> {
+                if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                    onCollection(oldGen.getCollectionUsage());
+                }
+            });
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(collector instanceof NotificationEmitter)) continue;
+            listen((NotificationEmitter) collector, (notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    onGarbageCollection(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+                }
+            });
+        }
+        LOG.warn("Monitoring memory pool " + oldGen.getName() + " with max " + max + " bytes");
+        return this;
+    }
+
+    private void listen(NotificationEmitter emitter, NotificationListener listener) {
+        emitter.addNotificationListener(listener, null, null);
+        listeners.put(emitter, listener);
+    }
+
+    public synchronized void stop() {
+        for (Map.Entry<NotificationEmitter, NotificationListener> entry : listeners.entrySet()) {
+            try {
+                entry.getKey().removeNotificationListener(entry.getValue());
+            } catch (ListenerNotFoundException e) {
+                // ignore
+            }
+        }
+        listeners.clear();
+    }
+
+    private void onGarbageCollection(GarbageCollectionNotificationInfo info) {
+        GcInfo gc = info.getGcInfo();
+        collections.incrementAndGet();
+        pauseTime.addAndGet(gc.getDuration());
+        maxPause.accumulateAndGet(gc.getDuration(), Math::max);
+        lastPause.set(gc.getDuration());
+        recordAllocation(gc);
+        onGarbageCollection(isMajor(info.getGcAction()), gc.getMemoryUsageAfterGc().get(oldGen.getName()));
+    }
+
+    // the young collectors of G1 list the old generation pool too, so only the action tells a major collection
+    static boolean isMajor(String gcAction) {
+        return "end of major GC".equals(gcAction);
+    }
+
+    /**
+     * After a minor collection the old generation still contains garbage, only a decrease is meaningful
+     * and it never counts towards halting.
+     */
+    synchronized void onGarbageCollection(boolean major, MemoryUsage oldGenAfterGc) {
+        if (oldGenAfterGc == null || (!major && oldGenAfterGc.getUsed() > usedAfterGc)) return;
+        onCollection(oldGenAfterGc.getUsed(), maxOf(oldGenAfterGc), major);
+    }
+
+    private synchronized void recordAllocation(GcInfo gc) {
+        long before = 0, after = 0;
+        for (MemoryUsage usage : gc.getMemoryUsageBeforeGc().values()) {
+            before += usage.getUsed();
+        }
+        for (MemoryUsage usage : gc.getMemoryUsageAfterGc().values()) {
+            after += usage.getUsed();
+        }
+        if (lastGcEnd >= 0 && gc.getStartTime() > lastGcEnd) {
+            allocationRate = Math.max(0, before - lastUsedAfterGc) * 1000 / (gc.getStartTime() - lastGcEnd);
+        }
+        lastUsedAfterGc = after;
+        lastGcEnd = gc.getEndTime();
+    }
+
+    private void onCollection(MemoryUsage usage) {
+        if (usage != null) onCollection(usage.getUsed(), maxOf(usage));
+    }
+
+    synchronized void onCollection(long used, long max) {
+        onCollection(used, max, true);
+    }
+
+    private synchronized void onCollection(long used, long max, boolean major) {
+        if (max <= 0) return;
+        usedAfterGc = used;
+        maxAfterGc = max;
+        final Pressure previous = pressure;
+        final Pressure current = Pressure.of(used * 100 / max);
+        pressure = current;
+        if (current != Pressure.HALT) haltingCollections = 0;
+        else if (major) haltingCollections++;
+        if (haltingCollections >= HALT_AFTER) {
+            halt("Running low on memory, " + used + " of " + max + " bytes used after garbage collection.");
+            return;
+        }
+        if (current == Pressure.NORMAL && previous == Pressure.NORMAL) return;
+        if (current != previous) LOG.warn("Memory pressure " + previous + " -> " + current + ", " + used + " of " + max + " bytes used");
+        final long excess = Math.max(0, used - max / 100 * Pressure.EVICT_IDLE.percent);
+        try {
+            executor.execute(() -> {
+                reactions.incrementAndGet();
+                reaction.react(current, excess);
+            });
+        } catch (RejectedExecutionException ree) {
+            LOG.warn("Could not react to memory pressure " + current);
+        }
+    }
+
+    protected void halt(String message) {
+        Halt.halt(message);
+    }
+
+    private static long maxOf(MemoryUsage usage) {
+        return usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+    }
+
+    public Pressure getPressure() {
+        return pressure;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = collections.get();
+        return map("pressure", pressure.name(), "oldGen", oldGen == null ? null : oldGen.getName(),
+                "oldGenUsedAfterGc", usedAfterGc, "oldGenMax", maxAfterGc,
+                "oldGenPercent", maxAfterGc == 0 ? 0 : usedAfterGc * 100 / maxAfterGc,
+                "allocationRate", allocationRate, "collections", count,
+                "pauseMillis", pauseTime.get(), "maxPauseMillis", maxPause.get(), "lastPauseMillis", lastPause.get(),
+                "avgPauseMillis", count == 0 ? 0 : pauseTime.get() / count, "reactions", reactions.get());
+    }
+}
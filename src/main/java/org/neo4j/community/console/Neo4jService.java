@@ -1,31 +1,26 @@
 package org.neo4j.community.console;
 
-import apoc.coll.Coll;
-import apoc.convert.Json;
-import apoc.create.Create;
-import apoc.date.*;
-import apoc.index.FulltextIndex;
-import apoc.load.LoadJson;
-import apoc.load.Xml;
-import apoc.lock.*;
-import apoc.meta.Meta;
-import apoc.path.PathExplorer;
-import apoc.refactor.GraphRefactoring;
 import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.graphdb.mockfs.EphemeralFileSystemAbstraction;
+import org.neo4j.graphdb.mockfs.UncloseableDelegatingFileSystemAbstraction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.helpers.collection.MapUtil;
-import org.neo4j.internal.kernel.api.exceptions.KernelException;
-import org.neo4j.kernel.impl.proc.Procedures;
-import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.io.fs.FileSystemAbstraction;
 import org.neo4j.kernel.lifecycle.LifecycleException;
 import org.neo4j.test.TestGraphDatabaseFactory;
 import org.slf4j.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
-import static java.util.Arrays.asList;
 import static org.neo4j.helpers.collection.MapUtil.map;
 
 /**
@@ -36,44 +31,53 @@ class Neo4jService {
 
     private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(Neo4jService.class);
     public static final String VERSION_REGEXP = "(\\d+\\.\\d+(?:\\.experimental|-cost|-rule)?)";
+    static final long CLEAR_BATCH_SIZE = Util.setting("console.clear.batch", 10000);
+    static final int INIT_BATCH_SIZE = (int) Util.setting("console.init.batch", 1000);
+    static final int MAX_RECYCLES = (int) Util.setting("console.recycle.max", 25);
 
     private GraphDatabaseService gdb;
+    private EphemeralFileSystemAbstraction fileSystem;
+    private File storeDir;
 
     private CypherQueryExecutor cypherQueryExecutor;
     private CypherExportService cypherExportService;
     private String version;
     private boolean initialized;
     private String id;
+    private int recycled;
+    private final AtomicLong lastAccess = new AtomicLong(System.currentTimeMillis());
+    private volatile long lastResultBytes;
+    private final RequestGate gate = new RequestGate();
+    private final Label tenant;
+    private final SessionQuota quota = new SessionQuota();
+    private final ResultCache results = new ResultCache();
+    private SessionJournal journal = new SessionJournal();
+    private volatile File snapshot;
+    private Supplier<Neo4jService> databases;
+    private Runnable onRestore;
 
     Neo4jService() throws Throwable {
-        this(createInMemoryDatabase(),true);
+        this(new EphemeralFileSystemAbstraction(), new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString()));
     }
 
-    private static GraphDatabaseService createInMemoryDatabase() throws Throwable {
+    Neo4jService(EphemeralFileSystemAbstraction fileSystem, File storeDir) throws Throwable {
+        this(createInMemoryDatabase(fileSystem, storeDir), true);
+        this.fileSystem = fileSystem;
+        this.storeDir = storeDir;
+    }
+
+    // the database must not close the file system on shutdown, so that its store can be kept as an image, stop() closes it
+    // a database that fails to boot only fails the caller, the session, pool refill or store image that asked for it
+    static GraphDatabaseService createInMemoryDatabase(FileSystemAbstraction fileSystem, File storeDir) throws Throwable {
         try {
             Map<String,String> config = MapUtil.stringMap("dbms.transaction.timeout", "10s","mapped_memory_total_size","5M","dbms.pagecache.memory","5M","keep_logical_logs","false","cache_type","none","query_cache_size","15");
-            File storeDir = new File(System.getProperty("java.io.tmpdir"), UUID.randomUUID().toString());
-            GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder(storeDir).setConfig(config).newGraphDatabase();
-            Procedures procedures = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Procedures.class);
-            List<Class<?>> apocProcedures = asList(apoc.spatial.Geocode.class, Coll.class, apoc.text.Strings.class, apoc.map.Maps.class, Json.class, Create.class, apoc.date.Date.class, FulltextIndex.class, apoc.lock.Lock.class, LoadJson.class,
-                    Xml.class, PathExplorer.class, Meta.class, GraphRefactoring.class);
-            apocProcedures.forEach((proc) -> {
-                try {
-                    procedures.registerProcedure(proc);
-                    procedures.registerFunction(proc);
-                } catch (KernelException e) {
-                    throw new RuntimeException("Error registering "+proc,e);
-                }
-            });
+            GraphDatabaseService db = new TestGraphDatabaseFactory().setFileSystem(new UncloseableDelegatingFileSystemAbstraction(fileSystem)).newImpermanentDatabaseBuilder(storeDir).setConfig(config).newGraphDatabase();
+            ApocProcedures.register(db);
             return db;
         } catch(Throwable re) {
-            Throwable t=re.getCause();
-            if (re instanceof LifecycleException || t instanceof LifecycleException || t instanceof Error || re instanceof Error) {
-                re.printStackTrace();
-                Halt.halt("Lifecycle Exception during creation of database "+re.getMessage());
-            }
-            if (t instanceof RuntimeException) throw (RuntimeException)t;
-            if (t instanceof Error) throw (Error)t;
+            LOG.error("Error during creation of database " + storeDir, re);
+            Throwable t = re.getCause();
+            if (re instanceof LifecycleException || t == null) throw re;
             throw t;
         }
     }
@@ -82,12 +86,266 @@ class Neo4jService {
         this(gdb,false);
     }
 
+    /**
+     * A session on a database shared with other sessions, it only sees and changes the data of its tenant.
+     * @see TenantIsolation
+     */
+    Neo4jService(GraphDatabaseService gdb, Label tenant) {
+        this(gdb, false, tenant);
+    }
+
     private Neo4jService(GraphDatabaseService gdb, boolean ownsDatabase) {
+        this(gdb, ownsDatabase, null);
+    }
+
+    private Neo4jService(GraphDatabaseService gdb, boolean ownsDatabase, Label tenant) {
         if (gdb == null) throw new IllegalArgumentException("Graph Database must not be null");
-        this.gdb = gdb;
         this.ownsDatabase = ownsDatabase;
-        cypherQueryExecutor = new CypherQueryExecutor(gdb);
-        cypherExportService = new CypherExportService(gdb);
+        this.tenant = tenant;
+        attach(gdb, null, null);
+    }
+
+    private void attach(GraphDatabaseService gdb, EphemeralFileSystemAbstraction fileSystem, File storeDir) {
+        this.gdb = gdb;
+        this.fileSystem = fileSystem;
+        this.storeDir = storeDir;
+        SessionQuota.install(gdb);
+        results.clear();
+        cypherQueryExecutor = new CypherQueryExecutor(gdb, tenant, quota);
+        cypherExportService = new CypherExportService(gdb, tenant);
+    }
+
+    /**
+     * Exchanges the databases of two owned services, the session state (version, id, initialized) stays where it was.
+     */
+    void swapDatabase(Neo4jService other) {
+        if (!ownsDatabase || !other.ownsDatabase) throw new IllegalStateException("Can only swap owned databases");
+        GraphDatabaseService otherDb = other.gdb;
+        EphemeralFileSystemAbstraction otherFileSystem = other.fileSystem;
+        File otherStoreDir = other.storeDir;
+        int otherRecycled = other.recycled;
+        other.attach(gdb, fileSystem, storeDir);
+        other.recycled = recycled;
+        attach(otherDb, otherFileSystem, otherStoreDir);
+        recycled = otherRecycled;
+        quota.resetData();
+        other.quota.resetData();
+        SessionJournal otherJournal = other.journal;
+        other.journal = journal;
+        journal = otherJournal;
+    }
+
+    /**
+     * Hands the database over to a new service, this one can't be used anymore.
+     * Requests that still hold on to this service fail instead of running against a database that was handed out again.
+     */
+    Neo4jService handOver() {
+        if (gdb == null || !ownsDatabase) throw new IllegalStateException("Can only hand over owned databases");
+        Neo4jService fresh = new Neo4jService(gdb, true);
+        fresh.fileSystem = fileSystem;
+        fresh.storeDir = storeDir;
+        fresh.recycled = recycled;
+        results.clear();
+        gdb = null;
+        fileSystem = null;
+        storeDir = null;
+        cypherQueryExecutor = null;
+        cypherExportService = null;
+        return fresh;
+    }
+
+    /**
+     * Runs a read-only request, in parallel to other read-only requests of this session.
+     */
+    public <T> T shared(Supplier<T> request) {
+        if (snapshot != null) gate.exclusive(this::activate);
+        return gate.shared(() -> available(request));
+    }
+
+    /**
+     * Runs a mutating request or reset, exclusively for this session.
+     */
+    public <T> T exclusive(Supplier<T> request) {
+        return gate.exclusive(() -> {
+            activate();
+            return available(request);
+        });
+    }
+
+    /**
+     * Writes the graph of the idle session to a snapshot and shuts down its database,
+     * the next request restores the snapshot into a database from {@code databases}. Callers hold the exclusive gate.
+     * @param onRestore runs once the service has a database again
+     * @return false if the service can't be passivated or was accessed in the meantime
+     */
+    boolean passivate(Supplier<Neo4jService> databases, Runnable onRestore) {
+        if (gdb == null || !ownsDatabase || tenant != null || snapshot != null) return false;
+        long accessed = lastAccess.get();
+        try {
+            snapshot = SessionSnapshot.write(gdb);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not passivate service " + this, e);
+            return false;
+        }
+        // a request that touched the session after the snapshot was published restores it, one that touched it before keeps it alive
+        if (lastAccess.get() != accessed) {
+            SessionSnapshot.delete(snapshot);
+            snapshot = null;
+            return false;
+        }
+        this.databases = databases;
+        this.onRestore = onRestore;
+        results.clear();
+        gdb.shutdown();
+        closeFileSystem();
+        gdb = null;
+        storeDir = null;
+        cypherQueryExecutor = null;
+        cypherExportService = null;
+        lastResultBytes = 0;
+        return true;
+    }
+
+    public boolean isPassivated() {
+        return snapshot != null;
+    }
+
+    // restores a passivated session into a fresh database, callers hold the exclusive gate
+    private Void activate() {
+        File file = snapshot;
+        if (file == null) return null;
+        takeDatabase(databases.get());
+        snapshot = null;
+        databases = null;
+        Runnable restored = onRestore;
+        onRestore = null;
+        restored.run();
+        try {
+            SessionSnapshot.restore(file, gdb);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not restore service " + this + " from " + file, e);
+            initialized = false;
+            throw new IllegalStateException("The session could not be restored, please reload the console");
+        } finally {
+            SessionSnapshot.delete(file);
+        }
+        return null;
+    }
+
+    private void takeDatabase(Neo4jService empty) {
+        attach(empty.gdb, empty.fileSystem, empty.storeDir);
+        recycled = empty.recycled;
+        empty.gdb = null;
+        empty.fileSystem = null;
+        empty.storeDir = null;
+    }
+
+    /**
+     * Quarantines the failed database, a fresh one from {@code databases} takes its place and the journal
+     * is replayed into it. The session state stays. Callers hold the exclusive gate.
+     * @return false if the service can't be rebuilt, because it doesn't own its database, its journal is incomplete
+     * or the replay failed, then it has to be reset
+     */
+    boolean rebuild(Supplier<Neo4jService> databases) {
+        if (!ownsDatabase || tenant != null || !journal.isComplete()) return false;
+        if (snapshot != null) return true;
+        if (gdb != null) {
+            try {
+                gdb.shutdown();
+            } catch (RuntimeException e) {
+                LOG.warn("Error shutting down failed database of " + this, e);
+            }
+            closeFileSystem();
+            gdb = null;
+        }
+        takeDatabase(databases.get());
+        quota.resetData();
+        lastResultBytes = 0;
+        try {
+            replay(journal.entries());
+            return true;
+        } catch (RuntimeException e) {
+            LOG.warn("Could not replay the journal of " + this, e);
+            initialized = false;
+            return false;
+        }
+    }
+
+    /**
+     * Replays a parked or imported journal into the empty database of this session, which takes the journal over.
+     * Callers hold the exclusive gate.
+     */
+    void restore(SessionJournal restored) {
+        if (!restored.isComplete()) throw new IllegalArgumentException("The journal is incomplete and can't be replayed");
+        if (restored.getVersion() != null) setVersion(restored.getVersion());
+        replay(restored.entries());
+        for (SessionJournal.Entry entry : restored.entries()) {
+            if (entry.graph != null) journal.record(entry.graph);
+            else journal.record(entry.query, entry.version, entry.params);
+        }
+        setInitialized();
+    }
+
+    /**
+     * Replaces graph and schema of the owned database with the ones of the journal, callers hold the exclusive gate.
+     */
+    void replaceWith(SessionJournal restored) {
+        if (!ownsDatabase || tenant != null) throw new IllegalStateException("Only sessions with their own database can be replaced");
+        clear();
+        dropSchema();
+        journal.clear();
+        restore(restored);
+    }
+
+    // schema statements first, then all data changes in one transaction, except periodic commits that need their own
+    private void replay(List<SessionJournal.Entry> entries) {
+        for (SessionJournal.Entry entry : entries) {
+            if (entry.isSchema()) cypherQueryExecutor.cypherQuery(entry.query, entry.version, entry.params);
+        }
+        Transaction tx = gdb.beginTx();
+        try {
+            for (SessionJournal.Entry entry : entries) {
+                if (entry.isSchema()) continue;
+                if (entry.graph != null) {
+                    importTo(entry.graph);
+                } else if (cypherQueryExecutor.isPeriodicCommit(entry.query)) {
+                    tx.success();
+                    tx.close();
+                    cypherQueryExecutor.cypherQuery(entry.query, entry.version, entry.params);
+                    tx = gdb.beginTx();
+                } else {
+                    cypherQueryExecutor.cypherQuery(entry.query, entry.version, entry.params);
+                }
+            }
+            tx.success();
+        } finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * @return false if the database of this service failed, passivated and reset services are healthy
+     */
+    public boolean isHealthy() {
+        GraphDatabaseService db = gdb;
+        return db == null || db.isAvailable(0);
+    }
+
+    SessionJournal getJournal() {
+        return journal;
+    }
+
+    private <T> T available(Supplier<T> request) {
+        if (gdb == null) throw new IllegalStateException("The session was reset, please reload the console");
+        return request.get();
+    }
+
+    RequestGate getGate() {
+        return gate;
+    }
+
+    public SessionQuota getQuota() {
+        return quota;
     }
 
     public Map cypherQueryViz(String query) {
@@ -96,13 +354,24 @@ class Neo4jService {
     }
     public Map cypherQueryViz(CypherQueryExecutor.CypherResult result) {
         try (Transaction tx = gdb.beginTx()) {
-            final SubGraph subGraph = SubGraph.from(gdb).markSelection(result);
+            final SubGraph subGraph = subGraph().markSelection(result);
             Map<String, Object> viz = map("nodes", subGraph.getNodes().values(), "links", subGraph.getRelationshipsWithIndexedEnds().values());
             tx.success();
             return viz;
         }
     }
 
+    /**
+     * @return the whole graph of this session, for tenants only their own nodes and relationships
+     */
+    public SubGraph subGraph() {
+        try (Transaction tx = gdb.beginTx()) {
+            SubGraph graph = tenant == null ? SubGraph.from(gdb) : SubGraph.from(gdb, tenant);
+            tx.success();
+            return graph;
+        }
+    }
+
     public String exportToCypher() {
         try (Transaction tx = gdb.beginTx()) {
             String cypher = cypherExportService.export();
@@ -120,10 +389,111 @@ class Neo4jService {
     }
 
     public CypherQueryExecutor.CypherResult initCypherQuery(String query, Map<String, Object> queryParams) {
-        return cypherQueryExecutor.cypherQuery(query,null,queryParams);
+        CypherQueryExecutor.CypherResult result = cypherQueryExecutor.cypherQuery(query,null,queryParams);
+        journal.record(query, null, queryParams);
+        return result;
     }
+    /**
+     * Runs the statements of an init script while they are read, runs of plain CREATE statements are committed together
+     * in transactions of up to {@code console.init.batch} statements.
+     */
+    public void initCypherQueries(Iterable<String> statements, Map<String, Object> queryParams) {
+        Iterator<String> it = statements.iterator();
+        String next = it.hasNext() ? it.next() : null;
+        while (next != null) {
+            if (!CypherStatement.of(next).isSimpleCreate()) {
+                initCypherQuery(next, queryParams);
+                next = it.hasNext() ? it.next() : null;
+                continue;
+            }
+            List<String> creates = new ArrayList<>();
+            creates.add(next);
+            next = null;
+            while (it.hasNext() && creates.size() < INIT_BATCH_SIZE) {
+                String statement = it.next();
+                if (!CypherStatement.of(statement).isSimpleCreate()) {
+                    next = statement;
+                    break;
+                }
+                creates.add(statement);
+            }
+            if (next == null && it.hasNext()) next = it.next();
+            cypherQueryExecutor.inTransaction(() -> {
+                for (String create : creates) cypherQueryExecutor.cypherQuery(create, null, queryParams);
+                return null;
+            });
+            // only committed statements are journaled
+            for (String create : creates) journal.record(create, null, queryParams);
+        }
+    }
+
     public CypherQueryExecutor.CypherResult cypherQuery(String query, Map<String, Object> queryParams) {
-        return cypherQueryExecutor.cypherQuery(query,version,queryParams);
+        return cypherQuery(query, queryParams, PlanMode.NONE);
+    }
+    /**
+     * Read-only queries without a plan are answered from the {@link ResultCache} while the graph didn't change.
+     */
+    public CypherQueryExecutor.CypherResult cypherQuery(String query, Map<String, Object> queryParams, PlanMode planMode) {
+        CypherQueryExecutor executor = cypherQueryExecutor;
+        CypherQueryExecutor.CypherResult result = planMode == PlanMode.NONE
+                ? results.get(gdb, query, version, queryParams, () -> executor.cypherQuery(query, version, queryParams, planMode))
+                : executor.cypherQuery(query, version, queryParams, planMode);
+        lastResultBytes = MemoryGovernor.resultBytes(result);
+        if (isJournaled(query, planMode)) journal.record(query, version, queryParams);
+        return result;
+    }
+
+    // statements that are only planned with EXPLAIN change nothing, periodic commits and statements with their own plan still run
+    private boolean isJournaled(String query, PlanMode planMode) {
+        if (!cypherQueryExecutor.isMutatingQuery(query)) return false;
+        CypherStatement statement = CypherStatement.of(query);
+        return !statement.isExplain() && (planMode != PlanMode.EXPLAIN || !statement.canProfile() || statement.hasPlan());
+    }
+
+    /**
+     * Runs the statements of the batch and adds the statistics of each to the results, with columns and json rows
+     * for the statements that ask for their result. In one transaction a failed statement rolls back the ones before it,
+     * only committed statements are journaled.
+     */
+    public void batchQuery(CypherBatch batch, List<Map<String, Object>> results) {
+        final long[] resultBytes = {0};
+        try {
+            if (!batch.isOneTransaction()) {
+                for (CypherBatch.Statement statement : batch) {
+                    results.add(batchQuery(statement, resultBytes));
+                    if (isJournaled(statement.query, PlanMode.NONE)) journal.record(statement.query, version, statement.params);
+                }
+                return;
+            }
+            cypherQueryExecutor.inTransaction(() -> {
+                for (CypherBatch.Statement statement : batch) {
+                    results.add(batchQuery(statement, resultBytes));
+                }
+                return null;
+            });
+            for (CypherBatch.Statement statement : batch) {
+                if (isJournaled(statement.query, PlanMode.NONE)) journal.record(statement.query, version, statement.params);
+            }
+        } finally {
+            lastResultBytes = resultBytes[0];
+        }
+    }
+
+    private Map<String, Object> batchQuery(CypherBatch.Statement statement, long[] resultBytes) {
+        if (!statement.result) return map("stats", cypherQueryExecutor.executeQuery(statement.query, version, statement.params));
+        CypherQueryExecutor.CypherResult result = cypherQueryExecutor.cypherQuery(statement.query, version, statement.params);
+        resultBytes[0] += MemoryGovernor.resultBytes(result);
+        return map("columns", result.getColumns(), "json", result.getJson(), "stats", result.getQueryStatistics());
+    }
+
+    /**
+     * Writes the result of the query to the stream while it is read, see {@link CypherQueryExecutor#streamQuery}.
+     */
+    public Map<String, Object> streamQuery(String query, Map<String, Object> queryParams, ResultStream out) {
+        Map<String, Object> stats = cypherQueryExecutor.streamQuery(query, version, queryParams, out);
+        lastResultBytes = 0;
+        if (isJournaled(query, PlanMode.NONE)) journal.record(query, version, queryParams);
+        return stats;
     }
 
     public String prettify(String query) {
@@ -131,9 +501,18 @@ class Neo4jService {
     }
 
     public void stop() {
+        if (snapshot != null) {
+            SessionSnapshot.delete(snapshot);
+            snapshot = null;
+            databases = null;
+            onRestore = null;
+        }
+        results.clear();
         if (gdb!=null) {
             LOG.warn("Shutting down service "+this+" owns db "+ownsDatabase);
             if (ownsDatabase) gdb.shutdown();
+            if (tenant != null) clearTenant();
+            closeFileSystem();
             cypherQueryExecutor=null;
             cypherExportService =null;
             gdb=null;
@@ -141,6 +520,16 @@ class Neo4jService {
         }
     }
 
+    private void closeFileSystem() {
+        if (fileSystem == null) return;
+        try {
+            fileSystem.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing file system of " + this, e);
+        }
+        fileSystem = null;
+    }
+
     public String getVersion() {
         return version;
     }
@@ -158,11 +547,14 @@ class Neo4jService {
         return version;
     }
 
+    // a reset service has no executor anymore, the request then fails in the gate with a proper message
+    // a passivated one neither, its requests run exclusively as they restore the database first
     public boolean isMutatingQuery(String query) {
-        return cypherQueryExecutor.isMutatingQuery(query);
+        CypherQueryExecutor executor = cypherQueryExecutor;
+        return executor != null ? executor.isMutatingQuery(query) : snapshot != null;
     }
     public boolean isCypherQuery(String query) {
-        return cypherQueryExecutor.isCypherQuery(query);
+        return CypherStatement.of(query).isCypher();
     }
 
     public GraphDatabaseService getGraphDatabase() {
@@ -170,10 +562,18 @@ class Neo4jService {
     }
 
     public void importGraph(SubGraph graph) {
-        try (Transaction tx = gdb.beginTx()) {
-            graph.importTo(gdb);
-            tx.success();
-        }
+        importTo(graph);
+        journal.record(graph);
+    }
+
+    private void importTo(SubGraph graph) {
+        TenantIsolation.as(tenant, () -> {
+            try (Transaction tx = gdb.beginTx()) {
+                graph.importTo(gdb);
+                tx.success();
+            }
+            return null;
+        });
     }
 
     public URL toUrl(String url) {
@@ -189,12 +589,51 @@ class Neo4jService {
         return ownsDatabase;
     }
 
+    public boolean isTenant() {
+        return tenant != null;
+    }
+
     public Neo4jService initializeFrom(SubGraph graph) {
         importGraph(graph);
         setInitialized();
         return this;
     }
 
+    public Neo4jService touch() {
+        lastAccess.set(System.currentTimeMillis());
+        return this;
+    }
+
+    public long getLastAccess() {
+        return lastAccess.get();
+    }
+
+    public long getLastResultBytes() {
+        return lastResultBytes;
+    }
+
+    public long getCachedResultBytes() {
+        return results.bytes();
+    }
+
+    public void clearResultCache() {
+        results.clear();
+    }
+
+    /**
+     * @return the size of the in-memory store files, 0 for databases not owned by this service
+     */
+    public long getStoreBytes() {
+        EphemeralFileSystemAbstraction fs = fileSystem;
+        File dir = storeDir;
+        if (fs == null || dir == null) return 0;
+        try {
+            return fs.streamFilesRecursive(dir).mapToLong(file -> fs.getFileSize(file.getFile())).sum();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
     public boolean isInitialized() {
         return initialized;
     }
@@ -229,7 +668,74 @@ class Neo4jService {
         return id == null || id.equals(this.id);
     }
 
+    // tenants only delete their own nodes, other tenants' nodes are not connected to them
     public void clear() {
-        gdb.execute("MATCH (n) detach delete n").close();
+        String match = tenant == null ? "MATCH (n)" : "MATCH (n:`" + tenant.name() + "`)";
+        TenantIsolation.as(tenant, () -> {
+            long deleted;
+            do {
+                try (Result result = gdb.execute(match + " WITH n LIMIT $batch DETACH DELETE n RETURN count(*) AS deleted", map("batch", CLEAR_BATCH_SIZE))) {
+                    deleted = ((Number) result.next().get("deleted")).longValue();
+                }
+            } while (deleted == CLEAR_BATCH_SIZE);
+            return null;
+        });
+        quota.resetData();
+        journal.clearData();
+    }
+
+    // the shared database keeps running, so the data of the session has to go with it
+    private void clearTenant() {
+        try {
+            clear();
+        } catch (Exception e) {
+            LOG.warn("Could not clear the data of tenant " + tenant.name(), e);
+        }
+    }
+
+    /**
+     * Wipes data and schema of the owned in-memory database and resets the session state,
+     * so that the booted database can be handed out again instead of being shut down.
+     * @return false if the database is not healthy or could not be wiped, then it has to be stopped instead
+     */
+    public boolean recycle() {
+        if (gdb == null || !ownsDatabase || recycled >= MAX_RECYCLES || !gdb.isAvailable(100)) return false;
+        try {
+            clear();
+            dropSchema();
+            journal.clear();
+            version = null;
+            lastResultBytes = 0;
+            initialized = false;
+            id = null;
+            recycled++;
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Could not recycle service " + this, e);
+            return false;
+        }
+    }
+
+    private void dropSchema() {
+        try (Transaction tx = gdb.beginTx()) {
+            Schema schema = gdb.schema();
+            for (ConstraintDefinition constraint : schema.getConstraints()) {
+                constraint.drop();
+            }
+            for (IndexDefinition index : schema.getIndexes()) {
+                if (!index.isConstraintIndex()) index.drop();
+            }
+            tx.success();
+        }
+        try (Transaction tx = gdb.beginTx()) {
+            IndexManager indexManager = gdb.index();
+            for (String name : indexManager.nodeIndexNames()) {
+                indexManager.forNodes(name).delete();
+            }
+            for (String name : indexManager.relationshipIndexNames()) {
+                indexManager.forRelationships(name).delete();
+            }
+            tx.success();
+        }
     }
 }
@@ -0,0 +1,122 @@
+package org.neo4j.community.console;
+
+import org.neo4j.cypher.internal.StringCacheMonitor;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.helpers.collection.Pair;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.monitoring.Monitors;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * How many distinct plans the JVM compiles per minute. Each statement is fingerprinted by its text as it was sent and as it
+ * was executed after {@link CypherLiterals} replaced its literals, the query cache keys its plans by that text.
+ * The misses of the query caches of the databases are the plans that were actually compiled.
+ * The last {@code console.plans.minutes} minutes are kept.
+ */
+class PlanFingerprints {
+
+    static final int MINUTES = (int) Util.setting("console.plans.minutes", 60);
+    private static final int MAX_FINGERPRINTS = 10000;
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Map<GraphDatabaseService, Boolean> installed = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Deque<Minute> minutes = new ArrayDeque<>();
+    private static long statements;
+    private static long compiled;
+
+    private static class Minute {
+        final long minute;
+        long statements;
+        long compiled;
+        final Set<Integer> sent = new HashSet<>();
+        final Set<Integer> executed = new HashSet<>();
+
+        Minute(long minute) {
+            this.minute = minute;
+        }
+
+        Map<String, Object> toMap() {
+            return map("minute", minute * MINUTE_MILLIS, "statements", statements, "distinct", sent.size(),
+                    "parameterized", executed.size(), "compiled", compiled);
+        }
+    }
+
+    /**
+     * Counts the plans the database compiles, once per database.
+     */
+    static void install(GraphDatabaseService db) {
+        if (installed.putIfAbsent(db, Boolean.TRUE) == null) {
+            ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Monitors.class).addMonitorListener(new CacheMisses());
+        }
+    }
+
+    /**
+     * @param sent the statement as it was sent
+     * @param executed the statement that was executed, with parameters instead of literals
+     */
+    static synchronized void record(String sent, String executed) {
+        final Minute current = current();
+        statements++;
+        current.statements++;
+        if (current.sent.size() < MAX_FINGERPRINTS) current.sent.add(sent.hashCode());
+        if (current.executed.size() < MAX_FINGERPRINTS) current.executed.add(executed.hashCode());
+    }
+
+    private static synchronized void compile() {
+        compiled++;
+        current().compiled++;
+    }
+
+    static synchronized long compiled() {
+        return compiled;
+    }
+
+    private static Minute current() {
+        long minute = System.currentTimeMillis() / MINUTE_MILLIS;
+        Minute last = minutes.peekLast();
+        if (last != null && last.minute == minute) return last;
+        last = new Minute(minute);
+        minutes.addLast(last);
+        while (minutes.size() > MINUTES) minutes.removeFirst();
+        return last;
+    }
+
+    /**
+     * @return the statements and compiled plans since the start, and per minute, the latest first, the statements,
+     * their distinct texts as sent and as executed and the plans compiled
+     */
+    static synchronized Map<String, Object> getMetrics() {
+        final List<Map<String, Object>> perMinute = new ArrayList<>(minutes.size());
+        for (Iterator<Minute> it = minutes.descendingIterator(); it.hasNext(); ) {
+            perMinute.add(it.next().toMap());
+        }
+        return map("statements", statements, "compiled", compiled, "literals", CypherLiterals.getMetrics(), "minutes", perMinute);
+    }
+
+    private static class CacheMisses implements StringCacheMonitor {
+        @Override
+        public void cacheMiss(Pair<String, scala.collection.immutable.Map<String, Class<?>>> key) {
+            compile();
+        }
+
+        @Override
+        public void cacheHit(Pair<String, scala.collection.immutable.Map<String, Class<?>>> key) {
+        }
+
+        @Override
+        public void cacheDiscard(Pair<String, scala.collection.immutable.Map<String, Class<?>>> key, String query, int secondsSinceReplan) {
+        }
+
+        @Override
+        public void cacheRecompile(Pair<String, scala.collection.immutable.Map<String, Class<?>>> key) {
+        }
+
+        @Override
+        public void cacheFlushDetected(long sizeBeforeFlush) {
+        }
+    }
+}
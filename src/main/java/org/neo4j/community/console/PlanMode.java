@@ -0,0 +1,31 @@
+package org.neo4j.community.console;
+
+/**
+ * Whether a query returns its plan: not at all, the estimated plan of EXPLAIN without running the query,
+ * or the PROFILE of the run with rows, db hits and page cache hits of every operator.
+ */
+enum PlanMode {
+    NONE(""), EXPLAIN("EXPLAIN "), PROFILE("PROFILE ");
+
+    private final String prefix;
+
+    PlanMode(String prefix) {
+        this.prefix = prefix;
+    }
+
+    String apply(String statement) {
+        return prefix + statement;
+    }
+
+    /**
+     * @param mode none, explain or profile, none if null
+     */
+    static PlanMode of(String mode) {
+        if (mode == null || mode.trim().isEmpty()) return NONE;
+        try {
+            return valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown plan mode " + mode + ", use none, explain or profile");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.neo4j.community.console;
+
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.slf4j.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Cancels the query a request is running when it takes longer than the timeout of the request, when the client
+ * disconnected or when the queries of the session are cancelled with {@code console/cancel}, e.g. as the tab was closed.
+ * Requests without the session header prove their session with its {@link #token}.
+ * The timeout is the {@code timeout} request parameter in ms, at most {@code console.query.timeout}, it applies to each query.
+ * It is the only wall clock limit of queries, the previous {@code console.quota.query.millis} is its fallback.
+ * The checks run on the watchdog thread of the {@link SessionQuota}.
+ * Cancelling terminates the kernel transaction, the query stops when it next reads or writes the graph.
+ */
+class QueryCancellation {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(QueryCancellation.class);
+
+    static final long MAX_TIMEOUT_MILLIS = Util.setting("console.query.timeout", Util.setting("console.quota.query.millis", 10000));
+
+    private static final ThreadLocal<QueryCancellation> current = new ThreadLocal<>();
+    private static final Set<QueryCancellation> active = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong timedOut = new AtomicLong();
+    private static final AtomicLong disconnected = new AtomicLong();
+    private static final AtomicLong cancelled = new AtomicLong();
+    private static final byte[] TOKEN_KEY = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(TOKEN_KEY);
+        SessionQuota.watch(QueryCancellation::watchActive);
+    }
+
+    private final String sessionId;
+    private final long timeoutMillis;
+    private final BooleanSupplier connected;
+    private volatile KernelTransaction tx;
+    private volatile long deadline;
+    private volatile String reason;
+
+    private QueryCancellation(String sessionId, long timeoutMillis, BooleanSupplier connected) {
+        this.sessionId = sessionId;
+        this.timeoutMillis = timeoutMillis;
+        this.connected = connected;
+    }
+
+    /**
+     * Starts watching the queries of the request handled by this thread, until {@link #end()}.
+     * @param connected false once the client is gone
+     */
+    static QueryCancellation begin(String sessionId, long timeoutMillis, BooleanSupplier connected) {
+        QueryCancellation cancellation = new QueryCancellation(sessionId, timeoutMillis, connected);
+        current.set(cancellation);
+        active.add(cancellation);
+        return cancellation;
+    }
+
+    void end() {
+        active.remove(this);
+        current.remove();
+    }
+
+    static QueryCancellation current() {
+        return current.get();
+    }
+
+    /**
+     * @param requested the timeout the request asks for in ms, or null
+     * @return the requested timeout, at most the one the server allows, which is also used for invalid ones
+     */
+    static long timeout(String requested) {
+        if (requested == null || requested.trim().isEmpty()) return MAX_TIMEOUT_MILLIS;
+        try {
+            long timeout = Long.parseLong(requested.trim());
+            return timeout > 0 ? Math.min(timeout, MAX_TIMEOUT_MILLIS) : MAX_TIMEOUT_MILLIS;
+        } catch (NumberFormatException e) {
+            return MAX_TIMEOUT_MILLIS;
+        }
+    }
+
+    /**
+     * Watches the transaction of a query that starts now, queries that join it keep its deadline.
+     * @return the transaction watched before, to be given to {@link #unwatch}
+     */
+    KernelTransaction watch(KernelTransaction tx) {
+        KernelTransaction previous = this.tx;
+        if (previous == tx) return previous;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.tx = tx;
+        if (reason != null) tx.markForTermination(Status.Transaction.Terminated);
+        return previous;
+    }
+
+    void unwatch(KernelTransaction previous) {
+        this.tx = previous;
+    }
+
+    /**
+     * @return why the query was cancelled, or the failure itself
+     */
+    RuntimeException failure(RuntimeException e) {
+        return reason == null ? e : new QueryCancelledException("The query was cancelled, " + reason);
+    }
+
+    /**
+     * @return the token that allows to cancel the queries of the session without its session header, valid until the restart
+     */
+    static String token(String sessionId) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(TOKEN_KEY, "HmacSHA256"));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(sessionId.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't create cancel tokens", e);
+        }
+    }
+
+    static boolean isToken(String sessionId, String token) {
+        if (sessionId == null || token == null) return false;
+        return MessageDigest.isEqual(token(sessionId).getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Cancels the running and waiting queries of the other requests of the session.
+     * @return the number of cancelled requests
+     */
+    static int cancel(String sessionId) {
+        int count = 0;
+        if (sessionId == null) return count;
+        for (QueryCancellation cancellation : active) {
+            if (cancellation == current.get() || !sessionId.equals(cancellation.sessionId)) continue;
+            if (cancellation.cancel("it was cancelled", cancelled)) count++;
+        }
+        return count;
+    }
+
+    private boolean cancel(String why, AtomicLong counter) {
+        if (reason != null) return false;
+        reason = why;
+        counter.incrementAndGet();
+        KernelTransaction running = tx;
+        if (running != null) running.markForTermination(Status.Transaction.Terminated);
+        return true;
+    }
+
+    private static void watchActive() {
+        long now = System.nanoTime();
+        for (QueryCancellation cancellation : active) {
+            try {
+                if (cancellation.tx == null || cancellation.reason != null) continue;
+                if (now > cancellation.deadline) {
+                    cancellation.cancel("it took longer than " + cancellation.timeoutMillis + " ms", timedOut);
+                } else if (!cancellation.connected.getAsBoolean()) {
+                    cancellation.cancel("the client disconnected", disconnected);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Error checking running query", e);
+            }
+        }
+    }
+
+    static Map<String, Object> getMetrics() {
+        return map("running", active.stream().filter(cancellation -> cancellation.tx != null).count(), "maxTimeoutMillis", MAX_TIMEOUT_MILLIS,
+                "timedOut", timedOut.get(), "disconnected", disconnected.get(), "cancelled", cancelled.get());
+    }
+}
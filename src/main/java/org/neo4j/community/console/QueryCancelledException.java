@@ -0,0 +1,11 @@
+package org.neo4j.community.console;
+
+/**
+ * Thrown when a running query was cancelled, because of its timeout, a disconnected client or by the user.
+ */
+class QueryCancelledException extends IllegalStateException {
+
+    QueryCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package org.neo4j.community.console;
+
+/**
+ * Thrown when a query of a session exceeds one of its quotas, only that query fails.
+ */
+class QuotaExceededException extends IllegalStateException {
+
+    QuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,66 @@
+package org.neo4j.community.console;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Orders the requests of one session: read-only requests run in parallel, mutating requests and resets run exclusively.
+ * The lock is fair, so a waiting update is not starved by a stream of reads, requests are served in arrival order.
+ * <p>
+ * Shared sections may be nested in exclusive ones, but not the other way round.
+ */
+class RequestGate {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong exclusiveRequests = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    public <T> T shared(Supplier<T> action) {
+        return run(lock.readLock(), action);
+    }
+
+    public <T> T exclusive(Supplier<T> action) {
+        if (lock.getReadHoldCount() > 0) throw new IllegalStateException("Can't run an exclusive request within a shared one");
+        exclusiveRequests.incrementAndGet();
+        return run(lock.writeLock(), action);
+    }
+
+    private <T> T run(Lock gate, Supplier<T> action) {
+        long start = System.nanoTime();
+        maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+        try {
+            gate.lock();
+        } finally {
+            queued.decrementAndGet();
+        }
+        try {
+            long waited = (System.nanoTime() - start) / 1000000;
+            requests.incrementAndGet();
+            waitTime.addAndGet(waited);
+            maxWaitTime.accumulateAndGet(waited, Math::max);
+            return action.get();
+        } finally {
+            gate.unlock();
+        }
+    }
+
+    public int getQueueLength() {
+        return queued.get();
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = requests.get();
+        return map("queued", queued.get(), "maxQueued", maxQueued.get(), "requests", count, "exclusive", exclusiveRequests.get(),
+                "waitMillis", waitTime.get(), "maxWaitMillis", maxWaitTime.get(), "avgWaitMillis", count == 0 ? 0 : waitTime.get() / count);
+    }
+}
@@ -0,0 +1,49 @@
+package org.neo4j.community.console;
+
+import com.heroku.api.HerokuAPI;
+import org.slf4j.Logger;
+
+/**
+ * Restarts the whole console when it can't recover in-process, chosen with {@code console.restart}:
+ * {@code heroku} restarts the dyno through the Heroku API, {@code exit} ends the JVM for a supervisor to start it again,
+ * {@code log} only logs. By default {@code heroku} if a Heroku token is configured, otherwise {@code log},
+ * {@code exit} has to be configured explicitly.
+ */
+interface RestartHook {
+
+    void restart(String reason);
+
+    static RestartHook fromSettings() {
+        String token = System.getenv("HEROKU_TOKEN");
+        String type = Util.setting("console.restart", token != null ? "heroku" : "log");
+        switch (type) {
+            case "heroku":
+                return heroku(System.getenv("APP_NAME"), token);
+            case "exit":
+                return exit(1);
+            default:
+                return log();
+        }
+    }
+
+    static RestartHook heroku(final String appName, final String token) {
+        return reason -> {
+            System.err.println("Restarting Heroku Dyno");
+            System.err.flush();
+            new HerokuAPI(token).restartDynos(appName);
+        };
+    }
+
+    static RestartHook exit(final int status) {
+        return reason -> {
+            System.err.println("Exiting with status " + status);
+            System.err.flush();
+            Runtime.getRuntime().halt(status);
+        };
+    }
+
+    static RestartHook log() {
+        final Logger log = org.slf4j.LoggerFactory.getLogger(RestartHook.class);
+        return reason -> log.warn("Restart requested but disabled: " + reason);
+    }
+}
@@ -0,0 +1,122 @@
+package org.neo4j.community.console;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * The last read-only results of a session, keyed by the normalized query, its parameters, the cypher version and the version
+ * of the graph, which every committed change of the database increases. Repeated reads, like the visualization of the query
+ * that just ran, return the result and its renderings without running the query again, any write invalidates them.
+ * At most {@code console.results.cached} results of up to {@code console.results.bytes} estimated bytes are kept.
+ * Queries with functions that return something else on every call, like {@code rand()} or {@code timestamp()}, are not cached.
+ */
+class ResultCache {
+
+    static final int MAX_RESULTS = (int) Util.setting("console.results.cached", 8);
+    static final long MAX_RESULT_BYTES = Util.setting("console.results.bytes", 1024 * 1024);
+
+    private static final Pattern VOLATILE = Pattern.compile("\\b(rand|randomUUID|timestamp|date|datetime|localdatetime|time|localtime)\\s*\\(|\\bapoc\\.",
+            Pattern.CASE_INSENSITIVE);
+    private static final Map<GraphDatabaseService, AtomicLong> graphVersions = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final Map<List<Object>, CypherQueryExecutor.CypherResult> results = Collections.synchronizedMap(
+            new LinkedHashMap<List<Object>, CypherQueryExecutor.CypherResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CypherQueryExecutor.CypherResult> eldest) {
+                    return size() > MAX_RESULTS;
+                }
+            });
+
+    /**
+     * @return the cached result of the query, otherwise the one it computes, which is kept if the query is read-only
+     * and the graph didn't change while it ran
+     */
+    CypherQueryExecutor.CypherResult get(GraphDatabaseService db, String query, String version, Map<String, Object> params,
+                                         Supplier<CypherQueryExecutor.CypherResult> execute) {
+        if (MAX_RESULTS <= 0 || !isCacheable(query)) return execute.get();
+        final AtomicLong graphVersion = graphVersion(db);
+        final long before = graphVersion.get();
+        final List<Object> key = Arrays.asList(normalize(query), version, params == null ? Collections.emptyMap() : new HashMap<>(params), before);
+        CypherQueryExecutor.CypherResult result = results.get(key);
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = execute.get();
+        if (graphVersion.get() == before && MemoryGovernor.resultBytes(result) <= MAX_RESULT_BYTES) results.put(key, result);
+        return result;
+    }
+
+    private static boolean isCacheable(String query) {
+        final CypherStatement statement = CypherStatement.of(query);
+        // procedures that read the schema are not cached, schema changes don't increase the graph version
+        return statement.isCypher() && statement.isReadOnly() && !statement.isProcedureCall() && !statement.hasPlan() && !VOLATILE.matcher(query).find();
+    }
+
+    // whitespace outside of literals is collapsed, a trailing semicolon dropped
+    static String normalize(String query) {
+        final String trimmed = query.trim();
+        final StringBuilder result = new StringBuilder(trimmed.length());
+        int length = trimmed.endsWith(";") ? trimmed.length() - 1 : trimmed.length();
+        int i = 0;
+        while (i < length) {
+            int end = CypherStatement.skipLiteral(trimmed, i);
+            if (end > i) {
+                result.append(trimmed, i, Math.min(end, length));
+                i = end;
+                continue;
+            }
+            char c = trimmed.charAt(i++);
+            if (!Character.isWhitespace(c)) result.append(c);
+            else if (result.length() > 0 && result.charAt(result.length() - 1) != ' ') result.append(' ');
+        }
+        return result.toString().trim();
+    }
+
+    // increased after every commit that changed the database
+    private static AtomicLong graphVersion(GraphDatabaseService db) {
+        synchronized (graphVersions) {
+            AtomicLong graphVersion = graphVersions.get(db);
+            if (graphVersion == null) {
+                final AtomicLong version = graphVersion = new AtomicLong();
+                db.registerTransactionEventHandler(new TransactionEventHandler.Adapter<Object>() {
+                    @Override
+                    public void afterCommit(TransactionData data, Object state) {
+                        version.incrementAndGet();
+                    }
+                });
+                graphVersions.put(db, graphVersion);
+            }
+            return graphVersion;
+        }
+    }
+
+    void clear() {
+        results.clear();
+    }
+
+    long bytes() {
+        synchronized (results) {
+            long bytes = 0;
+            for (CypherQueryExecutor.CypherResult result : results.values()) {
+                bytes += MemoryGovernor.resultBytes(result);
+            }
+            return bytes;
+        }
+    }
+
+    static Map<String, Object> getMetrics() {
+        return map("maxResults", MAX_RESULTS, "hits", hits.get(), "misses", misses.get());
+    }
+}
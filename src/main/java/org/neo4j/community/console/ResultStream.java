@@ -0,0 +1,98 @@
+package org.neo4j.community.console;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Writes the rows of a result while they are read, so only one row is held in memory.
+ * As NDJSON there is a line with the columns, one line per row and a last line with the stats or the error,
+ * as JSON one object with {@code columns}, {@code rows} and {@code stats} or {@code error}.
+ * The output is flushed every {@link #FLUSH_ROWS} rows.
+ */
+class ResultStream implements Closeable {
+
+    static final int FLUSH_ROWS = 100;
+
+    private final Writer out;
+    private final boolean lines;
+    private final Gson gson = new GsonBuilder().serializeNulls().create();
+    private boolean started;
+    private boolean ended;
+    private long rows;
+
+    private ResultStream(Writer out, boolean lines) {
+        this.out = out;
+        this.lines = lines;
+    }
+
+    static ResultStream ndjson(Writer out) {
+        return new ResultStream(out, true);
+    }
+
+    static ResultStream json(Writer out) {
+        return new ResultStream(out, false);
+    }
+
+    void columns(List<String> columns) throws IOException {
+        started = true;
+        if (lines) {
+            line(map("columns", columns));
+        } else {
+            out.write("{\"columns\":");
+            gson.toJson(columns, out);
+            out.write(",\"rows\":[");
+        }
+    }
+
+    void row(Map<String, Object> row) throws IOException {
+        if (lines) {
+            line(row);
+        } else {
+            if (rows > 0) out.write(',');
+            gson.toJson(row, out);
+        }
+        if (++rows % FLUSH_ROWS == 0) out.flush();
+    }
+
+    void stats(Map<String, Object> stats) throws IOException {
+        end("stats", stats);
+    }
+
+    void error(String message) throws IOException {
+        end("error", message);
+    }
+
+    private void end(String key, Object value) throws IOException {
+        if (ended) return;
+        ended = true;
+        if (lines) {
+            line(map(key, value));
+            return;
+        }
+        out.write(started ? "]," : "{");
+        gson.toJson(key, out);
+        out.write(':');
+        gson.toJson(value, out);
+        out.write('}');
+    }
+
+    private void line(Object value) throws IOException {
+        gson.toJson(value, out);
+        out.write('\n');
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
@@ -1,5 +1,6 @@
 package org.neo4j.community.console;
 
+import org.eclipse.jetty.io.EndPoint;
 import org.slf4j.Logger;
 import org.neo4j.kernel.lifecycle.LifecycleException;
 import spark.HaltException;
@@ -32,30 +33,52 @@ abstract class Route extends spark.Route {
 
     @Override
     public Object handle(Request request, Response response) {
+        QueryCancellation cancellation = QueryCancellation.begin(getSessionId(request), QueryCancellation.timeout(request.queryParams("timeout")), () -> isConnected(request.raw()));
         try {
-            doBefore(request,response);
-            return doHandle(request, response, service(request));
-        } catch (LifecycleException e) {
-            reset(request);
-            SessionService.cleanSessions();
-            return handleException(e);
-        } catch (OutOfMemoryError e) {
-            reset(request);
-            SessionService.cleanSessions();
+            if (!usesDatabase()) {
+                doBefore(request, response);
+                return doHandle(request, response, service(request));
+            }
+            // in both thread modes, it is the admission control of database work, see ConcurrencyLimiter
+            return ConcurrencyLimiter.getInstance().call(() -> {
+                doBefore(request, response);
+                return doHandle(request, response, service(request));
+            }, ConsoleFilter.deadline(request.raw()));
+        } catch (LifecycleException | OutOfMemoryError e) {
+            SessionService.recover(request.raw());
             return handleException(e);
         } catch (HaltException he) {
             throw he;
+        } catch (SessionRejectedException sre) {
+            response.header("Retry-After", String.valueOf(sre.getRetryAfterSeconds()));
+            halt(sre.getStatus(), sre.getMessage());
+            return sre.getMessage();
         } catch (Exception e) {
             return handleException(e);
+        } finally {
+            cancellation.end();
         }
     }
 
+    // jetty only notices a closed connection when it reads or writes, so this misses some clients that are gone
+    private static boolean isConnected(HttpServletRequest request) {
+        org.eclipse.jetty.server.Request base = org.eclipse.jetty.server.Request.getBaseRequest(request);
+        if (base == null || base.getHttpChannel() == null) return true;
+        EndPoint endPoint = base.getHttpChannel().getEndPoint();
+        return endPoint == null || endPoint.isOpen();
+    }
+
     private Object handleException(Throwable e) {
         e.printStackTrace();
         halt(500, e.getMessage());
         return e.getMessage();
     }
 
+    // routes that don't query the database don't need to wait for a permit of the concurrency limiter
+    protected boolean usesDatabase() {
+        return true;
+    }
+
     protected abstract Object doHandle(Request request, Response response, Neo4jService service) throws Exception;
     protected void doBefore(Request request, Response response) {
     }
@@ -0,0 +1,225 @@
+package org.neo4j.community.console;
+
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The append-only journal of the init and mutating statements of a session, with their parameters and cypher version,
+ * and of the graphs imported into it, so that the graph can be replayed into a fresh database.
+ * Only the last {@code console.journal.max} entries are kept, a journal that lost entries can't be replayed.
+ * <p>
+ * The journals of evicted sessions are parked, in memory or with {@code console.journal.dir} as compressed files,
+ * and replayed when the session comes back. {@link #toMaps()} and {@link #fromMaps} move a journal between consoles.
+ * Imported graphs are only kept in memory, they are not written to files or exported.
+ */
+class SessionJournal implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(SessionJournal.class);
+
+    static final int MAX_ENTRIES = (int) Util.setting("console.journal.max", 1000);
+    static final String DIRECTORY = Util.setting("console.journal.dir", (String) null);
+    static final int MAX_PARKED = (int) Util.setting("console.journal.parked", 1000);
+
+    private static final Map<String, SessionJournal> parked = Collections.synchronizedMap(new LinkedHashMap<String, SessionJournal>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SessionJournal> eldest) {
+            return size() > MAX_PARKED;
+        }
+    });
+
+    private final int maxEntries;
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean complete = true;
+    private String version;
+
+    SessionJournal() {
+        this(MAX_ENTRIES);
+    }
+
+    SessionJournal(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    synchronized void record(String query, String version, Map<String, Object> params) {
+        add(new Entry(query, version, params == null || params.isEmpty() ? null : new HashMap<>(params), null));
+    }
+
+    synchronized void record(SubGraph graph) {
+        add(new Entry(null, null, null, graph));
+    }
+
+    private void add(Entry entry) {
+        if (entries.size() >= maxEntries) {
+            entries.remove(0);
+            complete = false;
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Forgets the data changes after the graph was wiped, schema statements are kept as the schema still exists.
+     */
+    synchronized void clearData() {
+        entries.removeIf(entry -> !entry.isSchema());
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        complete = true;
+        version = null;
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized List<Entry> entries() {
+        return new ArrayList<>(entries);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized SessionJournal copy() {
+        SessionJournal copy = new SessionJournal(maxEntries);
+        copy.entries.addAll(entries);
+        copy.complete = complete;
+        return copy;
+    }
+
+    // the cypher version of the session when it was parked
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * Keeps the journal of an evicted session until the session comes back.
+     */
+    static void park(String sessionId, Neo4jService service) {
+        SessionJournal journal = service.getJournal();
+        if (sessionId == null || journal.isEmpty() || !journal.isComplete()) return;
+        // the service and its journal are recycled
+        SessionJournal copy = journal.copy();
+        copy.version = service.getVersion();
+        if (DIRECTORY == null) {
+            parked.put(sessionId, copy);
+            return;
+        }
+        try {
+            copy.write(file(sessionId));
+        } catch (IOException e) {
+            LOG.warn("Could not park the journal of session " + sessionId, e);
+        }
+    }
+
+    /**
+     * @return the parked journal of the session or null, it is only handed out once
+     */
+    static SessionJournal unpark(String sessionId) {
+        if (sessionId == null) return null;
+        if (DIRECTORY == null) return parked.remove(sessionId);
+        File file = file(sessionId);
+        if (!file.exists()) return null;
+        try {
+            return read(file);
+        } catch (IOException e) {
+            LOG.warn("Could not read the journal of session " + sessionId, e);
+            return null;
+        } finally {
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    static int parkedCount() {
+        if (DIRECTORY == null) return parked.size();
+        String[] files = new File(DIRECTORY).list();
+        return files == null ? 0 : files.length;
+    }
+
+    private static File file(String sessionId) {
+        return new File(DIRECTORY, sessionId.replaceAll("[^A-Za-z0-9_-]", "_") + ".journal.gz");
+    }
+
+    // imported graphs are not written, a journal with them is incomplete afterwards
+    synchronized void write(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create directory " + dir);
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeObject(this);
+        }
+    }
+
+    static SessionJournal read(File file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            return (SessionJournal) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Invalid journal " + file, e);
+        }
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        boolean hasGraphs = entries.stream().anyMatch(entry -> entry.graph != null);
+        boolean written = complete;
+        complete = complete && !hasGraphs;
+        try {
+            out.defaultWriteObject();
+        } finally {
+            complete = written;
+        }
+    }
+
+    synchronized List<Map<String, Object>> toMaps() {
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (entry.query == null) continue;
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("query", entry.query);
+            if (entry.version != null) map.put("version", entry.version);
+            if (entry.params != null) map.put("params", entry.params);
+            result.add(map);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    static SessionJournal fromMaps(List<Map<String, Object>> maps, String version) {
+        SessionJournal journal = new SessionJournal(Math.max(MAX_ENTRIES, maps.size()));
+        journal.version = version;
+        for (Map<String, Object> map : maps) {
+            Object query = map.get("query");
+            if (!(query instanceof String)) throw new IllegalArgumentException("Journal entry without query " + map);
+            journal.record((String) query, (String) map.get("version"), (Map<String, Object>) map.get("params"));
+        }
+        return journal;
+    }
+
+    // a statement or an imported graph
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final String query;
+        final String version;
+        final HashMap<String, Object> params;
+        final transient SubGraph graph;
+
+        private Entry(String query, String version, HashMap<String, Object> params, SubGraph graph) {
+            this.query = query;
+            this.version = version;
+            this.params = params;
+            this.graph = graph;
+        }
+
+        boolean isSchema() {
+            return query != null && CypherQueryExecutor.isSchemaQuery(query);
+        }
+    }
+}
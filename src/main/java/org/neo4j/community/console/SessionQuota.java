@@ -0,0 +1,337 @@
+package org.neo4j.community.console;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.internal.kernel.api.Read;
+import org.neo4j.internal.kernel.api.TokenRead;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.Statement;
+import org.neo4j.kernel.api.exceptions.Status;
+import org.neo4j.kernel.impl.store.id.IdGenerator;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.slf4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * The limits of what one session may use and what it uses at the moment.
+ * <p>
+ * Nodes and relationships are counted from the count store when a query starts, a watchdog checks the cpu time
+ * of running queries and terminates the ones over the limit, the wall clock of a query is limited by its
+ * {@link QueryCancellation} on the same watchdog thread. The watchdog doesn't read the transaction state,
+ * that is only safe on the query thread, and cypher runs writes to the end before it returns their first row.
+ * Instead it reads how many node and relationship ids the database handed out since the query started, a query that
+ * creates more than the quota allows in total is terminated while it runs. On a database shared by tenants the ids other
+ * sessions take meanwhile count too, so a write may be stopped early but never let through.
+ * The exact node, relationship and property byte totals are checked when the query commits.
+ * Rows are counted while the result is read.
+ * <p>
+ * The cpu time is a budget of {@code console.quota.cpu.millis} that refills evenly over {@code console.quota.cpu.window.millis},
+ * a busy session waits until enough of it is back. A reset of the data doesn't clear it, the cpu was used all the same.
+ * Only the offending query fails with a {@link QuotaExceededException}.
+ * A terminated query stops when it next reads or writes the graph, a query that only computes values runs on until then.
+ */
+class SessionQuota {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(SessionQuota.class);
+
+    static final long MAX_NODES = Util.setting("console.quota.nodes", 100000);
+    static final long MAX_RELATIONSHIPS = Util.setting("console.quota.relationships", 100000);
+    static final long MAX_PROPERTY_BYTES = Util.setting("console.quota.property.bytes", 64 * 1024 * 1024);
+    static final long MAX_ROWS = Util.setting("console.quota.rows", 10000);
+    static final long MAX_CPU_MILLIS = Util.setting("console.quota.cpu.millis", TimeUnit.MINUTES.toMillis(1));
+    static final long CPU_WINDOW_MILLIS = Util.setting("console.quota.cpu.window.millis", TimeUnit.MINUTES.toMillis(5));
+    private static final long CHECK_MILLIS = 100;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final ThreadLocal<Query> current = new ThreadLocal<>();
+    private static final Set<Query> running = ConcurrentHashMap.newKeySet();
+    private static final Map<GraphDatabaseService, IdGeneratorFactory> installed = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "query-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        watchdog.scheduleWithFixedDelay(SessionQuota::watchRunning, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private final long maxNodes;
+    private final long maxRelationships;
+    private final long maxPropertyBytes;
+    private final long maxRows;
+    private final long maxCpuNanos;
+    private final long cpuWindowNanos;
+
+    private volatile long nodes;
+    private volatile long relationships;
+    private final AtomicLong propertyBytes = new AtomicLong();
+    private long cpuNanos;
+    private long refilledNanos = System.nanoTime();
+    private final AtomicLong exceeded = new AtomicLong();
+
+    SessionQuota() {
+        this(MAX_NODES, MAX_RELATIONSHIPS, MAX_PROPERTY_BYTES, MAX_ROWS, MAX_CPU_MILLIS, CPU_WINDOW_MILLIS);
+    }
+
+    SessionQuota(long maxNodes, long maxRelationships, long maxPropertyBytes, long maxRows, long maxCpuMillis, long cpuWindowMillis) {
+        this.maxNodes = maxNodes;
+        this.maxRelationships = maxRelationships;
+        this.maxPropertyBytes = maxPropertyBytes;
+        this.maxRows = maxRows;
+        this.maxCpuNanos = TimeUnit.MILLISECONDS.toNanos(maxCpuMillis);
+        this.cpuWindowNanos = TimeUnit.MILLISECONDS.toNanos(cpuWindowMillis);
+    }
+
+    /**
+     * Registers the commit checks in the database, once per database.
+     */
+    static void install(GraphDatabaseService db) {
+        synchronized (installed) {
+            if (installed.containsKey(db)) return;
+            db.registerTransactionEventHandler(new Accounting());
+            installed.put(db, ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(IdGeneratorFactory.class));
+        }
+    }
+
+    /**
+     * Starts watching a query that runs on this thread in the given transaction of the database.
+     * @param tenant if not null only the nodes and relationships of the tenant are counted
+     */
+    Query start(GraphDatabaseService db, KernelTransaction tx, Label tenant) {
+        if (cpuNanos() >= maxCpuNanos) throw exceeded(cpuLimit());
+        Query outer = current.get();
+        // nothing was changed in the transaction yet, in an outer watched transaction the counts were taken when it started
+        if (outer == null || outer.tx != tx) {
+            Statement statement = tx.acquireStatement();
+            try {
+                Read read = tx.dataRead();
+                int label = tenant == null ? Read.ANY_LABEL : tx.tokenRead().nodeLabel(tenant.name());
+                if (tenant != null && label == TokenRead.NO_TOKEN) {
+                    nodes = 0;
+                    relationships = 0;
+                } else {
+                    nodes = read.countsForNode(label);
+                    relationships = read.countsForRelationship(label, Read.ANY_RELATIONSHIP_TYPE, Read.ANY_LABEL);
+                }
+            } finally {
+                statement.close();
+            }
+        }
+        Query query = new Query(tx, outer, installed.get(db));
+        current.set(query);
+        running.add(query);
+        return query;
+    }
+
+    // the data of the session was wiped or replaced, the cpu budget stays as it is
+    void resetData() {
+        nodes = 0;
+        relationships = 0;
+        propertyBytes.set(0);
+    }
+
+    public Map<String, Object> getUsage() {
+        return map("nodes", nodes, "maxNodes", maxNodes, "relationships", relationships, "maxRelationships", maxRelationships,
+                "propertyBytes", propertyBytes.get(), "maxPropertyBytes", maxPropertyBytes, "maxRows", maxRows,
+                "maxQueryMillis", QueryCancellation.MAX_TIMEOUT_MILLIS, "cpuMillis", TimeUnit.NANOSECONDS.toMillis(cpuNanos()),
+                "maxCpuMillis", TimeUnit.NANOSECONDS.toMillis(maxCpuNanos), "cpuWindowMillis", TimeUnit.NANOSECONDS.toMillis(cpuWindowNanos),
+                "exceeded", exceeded.get());
+    }
+
+    // the cpu time used, less what refilled since the last look, the whole budget refills over one window
+    private synchronized long cpuNanos() {
+        long now = System.nanoTime();
+        long refill = (long) ((double) (now - refilledNanos) * maxCpuNanos / cpuWindowNanos);
+        cpuNanos = Math.max(0, cpuNanos - refill);
+        refilledNanos = now;
+        return cpuNanos;
+    }
+
+    private synchronized void used(long nanos) {
+        cpuNanos = cpuNanos() + nanos;
+    }
+
+    private String cpuLimit() {
+        return "cpu time of " + TimeUnit.NANOSECONDS.toMillis(maxCpuNanos) + " ms per " + TimeUnit.NANOSECONDS.toMillis(cpuWindowNanos) + " ms";
+    }
+
+    private QuotaExceededException exceeded(String what) {
+        exceeded.incrementAndGet();
+        return new QuotaExceededException("Quota exceeded: the session can't use more than " + what);
+    }
+
+    /**
+     * Runs the check periodically on the watchdog thread of the quotas.
+     */
+    static void watch(Runnable check) {
+        watchdog.scheduleWithFixedDelay(check, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void watchRunning() {
+        for (Query query : running) {
+            try {
+                query.watch();
+            } catch (RuntimeException e) {
+                LOG.warn("Error checking quota of query", e);
+            }
+        }
+    }
+
+    private static long idsInUse(IdGenerator ids) {
+        return ids == null ? 0 : ids.getNumberOfIdsInUse();
+    }
+
+    private static long threadCpu(Thread thread) {
+        long cpu = THREADS.isThreadCpuTimeSupported() ? THREADS.getThreadCpuTime(thread.getId()) : -1;
+        return Math.max(cpu, 0); // virtual threads don't report their cpu time
+    }
+
+    // strings are two bytes per char, numbers and other values are counted as 8 bytes
+    static long bytes(Object value) {
+        if (value == null) return 0;
+        if (value instanceof String) return 2L * ((String) value).length();
+        if (value.getClass().isArray()) {
+            if (value.getClass().getComponentType().isPrimitive()) return 8L * Array.getLength(value);
+            long bytes = 0;
+            for (int i = Array.getLength(value) - 1; i >= 0; i--) {
+                bytes += bytes(Array.get(value, i));
+            }
+            return bytes;
+        }
+        return 8;
+    }
+
+    /**
+     * A query of the session that is running at the moment, or a transaction with several queries that contains them.
+     */
+    class Query implements AutoCloseable {
+        private final KernelTransaction tx;
+        private final Query outer;
+        private final Thread thread = Thread.currentThread();
+        private final long startCpu = threadCpu(thread);
+        private final IdGenerator nodeIds;
+        private final IdGenerator relationshipIds;
+        private final long startNodeIds;
+        private final long startRelationshipIds;
+        private volatile QuotaExceededException violation;
+
+        // a query in the transaction of the outer one counts the ids from where the outer one started
+        private Query(KernelTransaction tx, Query outer, IdGeneratorFactory ids) {
+            this.tx = tx;
+            this.outer = outer;
+            this.nodeIds = ids == null ? null : ids.get(IdType.NODE);
+            this.relationshipIds = ids == null ? null : ids.get(IdType.RELATIONSHIP);
+            boolean joined = outer != null && outer.tx == tx && outer.nodeIds == nodeIds;
+            this.startNodeIds = joined ? outer.startNodeIds : idsInUse(nodeIds);
+            this.startRelationshipIds = joined ? outer.startRelationshipIds : idsInUse(relationshipIds);
+        }
+
+        void checkRows(long rows) {
+            if (rows > maxRows) throw exceeded(maxRows + " result rows");
+        }
+
+        // runs on the watchdog thread, which only reads clocks and the id generators, they are thread safe
+        private void watch() {
+            if (cpuNanos() + threadCpu(thread) - startCpu > maxCpuNanos) {
+                terminate(cpuLimit());
+            } else if (idsInUse(nodeIds) - startNodeIds > maxNodes) {
+                terminate(maxNodes + " nodes");
+            } else if (idsInUse(relationshipIds) - startRelationshipIds > maxRelationships) {
+                terminate(maxRelationships + " relationships");
+            }
+        }
+
+        private void terminate(String what) {
+            if (violation != null) return;
+            violation = exceeded(what);
+            tx.markForTermination(Status.Transaction.Terminated);
+        }
+
+        /**
+         * @return the quota violation that made the query fail, or the failure itself
+         */
+        RuntimeException failure(RuntimeException e) {
+            if (violation != null) return violation;
+            if (outer != null && outer.violation != null) return outer.violation;
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof QuotaExceededException) return (QuotaExceededException) cause;
+            }
+            return e;
+        }
+
+        private void commit(long nodeDelta, long relationshipDelta, long bytesDelta) {
+            if (nodeDelta > 0 && nodes + nodeDelta > maxNodes) throw exceeded(maxNodes + " nodes");
+            if (relationshipDelta > 0 && relationships + relationshipDelta > maxRelationships) throw exceeded(maxRelationships + " relationships");
+            if (bytesDelta > 0 && propertyBytes.get() + bytesDelta > maxPropertyBytes) throw exceeded(maxPropertyBytes + " property bytes");
+        }
+
+        private void committed(long nodeDelta, long relationshipDelta, long bytesDelta) {
+            nodes += nodeDelta;
+            relationships += relationshipDelta;
+            propertyBytes.accumulateAndGet(bytesDelta, (current, delta) -> Math.max(0, current + delta));
+        }
+
+        @Override
+        public void close() {
+            running.remove(this);
+            if (outer != null) {
+                current.set(outer);
+                return; // the outer query counts the cpu time
+            }
+            current.remove();
+            used(Math.max(0, threadCpu(thread) - startCpu));
+        }
+    }
+
+    private static class Accounting extends TransactionEventHandler.Adapter<long[]> {
+        @Override
+        public long[] beforeCommit(TransactionData data) {
+            Query query = current.get();
+            if (query == null) return null;
+            long[] delta = {count(data.createdNodes()) - count(data.deletedNodes()),
+                    count(data.createdRelationships()) - count(data.deletedRelationships()),
+                    propertyBytes(data.assignedNodeProperties(), data.removedNodeProperties()) + propertyBytes(data.assignedRelationshipProperties(), data.removedRelationshipProperties())};
+            query.commit(delta[0], delta[1], delta[2]);
+            return delta;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, long[] delta) {
+            Query query = current.get();
+            if (query != null && delta != null) query.committed(delta[0], delta[1], delta[2]);
+        }
+
+        private long count(Iterable<?> items) {
+            long count = 0;
+            for (Object ignored : items) count++;
+            return count;
+        }
+
+        private <T extends PropertyContainer> long propertyBytes(Iterable<PropertyEntry<T>> assigned, Iterable<PropertyEntry<T>> removed) {
+            long bytes = 0;
+            for (PropertyEntry<T> entry : assigned) {
+                bytes += bytes(entry.value()) - bytes(entry.previouslyCommitedValue());
+            }
+            for (PropertyEntry<T> entry : removed) {
+                bytes -= bytes(entry.previouslyCommitedValue());
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.neo4j.community.console;
+
+/**
+ * Thrown when a request or a new session can't be taken on right now, reported to the client with its status,
+ * 429 if too many requests are waiting, 503 if the console is out of capacity, and a Retry-After header.
+ */
+class SessionRejectedException extends IllegalStateException {
+
+    static final int TOO_MANY_REQUESTS = 429;
+    static final int SERVICE_UNAVAILABLE = 503;
+
+    private final int status;
+    private final int retryAfterSeconds;
+
+    SessionRejectedException(String message) {
+        this(message, SERVICE_UNAVAILABLE, 5);
+    }
+
+    SessionRejectedException(String message, int status, int retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,12 +1,17 @@
 package org.neo4j.community.console;
 
+import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.lifecycle.LifecycleException;
 import org.slf4j.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author mh
@@ -16,81 +21,181 @@ class SessionService {
 
     private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(SessionService.class);
 
-    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(20);
-    private static final long SCHEDULE = TimeUnit.MINUTES.toMillis(1);
+    static final long TIMEOUT = Util.setting("console.session.timeout", TimeUnit.MINUTES.toMillis(20));
+    static final long SCHEDULE = Util.setting("console.session.schedule", TimeUnit.MINUTES.toMillis(1));
+    static final long PASSIVATE_AFTER = Util.setting("console.session.passivate", TimeUnit.MINUTES.toMillis(5));
+    private static final boolean RECYCLE = Util.setting("console.recycle", true);
+    static final int MAX_SESSIONS = (int) Util.setting("console.sessions.max", 1000);
+    private static final int RELEASE_THREADS = 4;
 
     public static final String SESSION_HEADER = "X-Session";
 
     private static DatabaseInfo databaseInfo;
+    private static DatabasePool pool;
+    private static MemoryMonitor monitor;
+    private static volatile boolean refuseSessions;
 
-    private static Map<String, Long> lastUsage = new HashMap<>();
     private static final Map<String, Neo4jService> sessions=new ConcurrentHashMap<>();
-    private static Timer timer = new Timer(true);
-    static {
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                long unusedTime = System.currentTimeMillis()-TIMEOUT;
-                Set<Map.Entry<String, Long>> entries = new HashSet<>(lastUsage.entrySet());
-                for (Map.Entry<String, Long> entry : entries) {
-                    if (entry.getValue() < unusedTime) {
-                        cleanSession(entry.getKey());
-                        lastUsage.remove(entry.getKey());
-                    }
-                }
-            }
-        },SCHEDULE,SCHEDULE);
+    // idle sessions are only looked at when their timeout is due, request threads just touch the service
+    private static final TimingWheel<Map.Entry<String, Neo4jService>> idleSessions =
+            new TimingWheel<>(SCHEDULE, TIMEOUT, SessionService::idleDeadline, SessionService::expire).start("session-timeout");
+    // sessions idle for a shorter time are written to disk and their database is shut down, 0 disables it
+    private static final TimingWheel<Map.Entry<String, Neo4jService>> passivations = PASSIVATE_AFTER > 0 && PASSIVATE_AFTER < TIMEOUT ?
+            new TimingWheel<>(SCHEDULE, PASSIVATE_AFTER, SessionService::passivationDeadline, SessionService::passivate).start("session-passivation") : null;
+    // expired sessions are released here, waiting for their running requests or database shutdown doesn't hold up the wheel
+    private static final Executor releaser = releaser();
+    private static final AtomicLong passivated = new AtomicLong();
+    private static final AtomicLong rejectedSessions = new AtomicLong();
+    private static final AtomicLong recovered = new AtomicLong();
+    private static final AtomicLong resetAfterFailure = new AtomicLong();
+    private static final AtomicLong restoredJournals = new AtomicLong();
+    private static final MemoryGovernor memory = new MemoryGovernor(MemoryGovernor.defaultBudget(), sessions,
+            () -> (pool != null ? pool.size() : 0) + StoreImages.getInstance().spares(), () -> StoreImages.getInstance().bytes(),
+            (sessionId, service) -> evict(sessionId, service, Runnable::run));
+
+    private static Executor releaser() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(RELEASE_THREADS, RELEASE_THREADS, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "session-release");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
+
     public static void setDatabaseInfo(DatabaseInfo databaseInfo) {
         SessionService.databaseInfo = databaseInfo;
+        if (databaseInfo != null && databaseInfo.shouldCreateNew() && DatabasePool.ENABLED) {
+            startPool();
+        }
+        startMonitor();
+    }
+
+    private static synchronized void startPool() {
+        if (pool == null) pool = new DatabasePool().start();
+    }
+
+    private static synchronized void startMonitor() {
+        if (monitor == null) monitor = new MemoryMonitor(SessionService::onMemoryPressure).start();
+    }
+
+    // the tiers add up, the higher the old generation occupancy after gc the more we give up
+    static void onMemoryPressure(MemoryMonitor.Pressure pressure, long excessBytes) {
+        if (pool != null) {
+            if (pressure.atLeast(MemoryMonitor.Pressure.PAUSE_POOL)) pool.pause();
+            else pool.resume();
+        }
+        if (pressure.atLeast(MemoryMonitor.Pressure.DROP_CACHES)) {
+            StoreImages.getInstance().clear();
+            for (Neo4jService service : sessions.values()) service.clearResultCache();
+            if (pool != null) pool.drain();
+        }
+        refuseSessions = pressure.atLeast(MemoryMonitor.Pressure.REFUSE_SESSIONS);
+        if (pressure.atLeast(MemoryMonitor.Pressure.HALT)) {
+            memory.evictLeastRecentlyUsed(excessBytes);
+        } else if (pressure.atLeast(MemoryMonitor.Pressure.EVICT_IDLE)) {
+            memory.evictIdle(excessBytes);
+        }
     }
 
     public static void reset(final HttpServletRequest httpRequest) {
         String sessionId = getSessionId(httpRequest);
         if (sessionId==null) return;
-        Neo4jService service = sessions.get(sessionId);
+        Neo4jService service = sessions.remove(sessionId);
         if (service == null) return;
-        try {
-            service.stop();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sessions.remove(sessionId);
-            lastUsage.remove(sessionId);
-        }
+        release(service);
     }
 
     public static void cleanSession(String sessionId) {
-        Neo4jService service = sessions.get(sessionId);
+        Neo4jService service = sessions.remove(sessionId);
         if (service == null) return;
-        try {
-            service.stop();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sessions.remove(sessionId);
+        release(service);
+    }
+
+    private static long idleDeadline(Map.Entry<String, Neo4jService> session) {
+        if (sessions.get(session.getKey()) != session.getValue()) return TimingWheel.CANCELLED;
+        return session.getValue().getLastAccess() + TIMEOUT;
+    }
+
+    // runs on the wheel thread, which only removes the session and parks its journal
+    static void expire(Map.Entry<String, Neo4jService> session) {
+        if (evict(session.getKey(), session.getValue(), releaser)) {
+            LOG.warn("Session expired " + session.getKey());
+        }
+    }
+
+    // a passivated session leaves the wheel until it is restored
+    private static long passivationDeadline(Map.Entry<String, Neo4jService> session) {
+        Neo4jService service = session.getValue();
+        if (sessions.get(session.getKey()) != service || !service.doesOwnDatabase() || service.isPassivated()) return TimingWheel.CANCELLED;
+        return service.getLastAccess() + PASSIVATE_AFTER;
+    }
+
+    // a restored session is scheduled again, so that it is passivated again when it becomes idle
+    private static void passivate(Map.Entry<String, Neo4jService> session) {
+        Neo4jService service = session.getValue();
+        boolean done = service.getGate().exclusive(() -> System.currentTimeMillis() - service.getLastAccess() >= PASSIVATE_AFTER
+                && service.passivate(SessionService::database, () -> passivations.schedule(session)));
+        if (done) {
+            passivated.incrementAndGet();
+            LOG.warn("Session passivated " + session.getKey());
+        } else if (sessions.get(session.getKey()) == service) {
+            passivations.schedule(session);
         }
     }
 
+    private static boolean evict(String sessionId, Neo4jService service, Executor release) {
+        if (!sessions.remove(sessionId, service)) return false;
+        SessionJournal.park(sessionId, service);
+        release.execute(() -> release(service));
+        return true;
+    }
+
+    // wipe and return healthy databases to the pool, only shut down the ones that can't be recycled
+    // waits for running requests of the session, the pool gets a new service so that late requests can't reach the database
+    static void release(Neo4jService service) {
+        service.getGate().exclusive(() -> {
+            try {
+                if (RECYCLE && pool != null && service.recycle()) {
+                    Neo4jService recycled = service.handOver();
+                    if (pool.offer(recycled)) return null;
+                    recycled.stop();
+                    return null;
+                }
+                service.stop();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return null;
+        });
+    }
+
     public static Neo4jService getService(final HttpServletRequest request,boolean create) {
         String sessionId = getSessionId(request);
         try {
             Neo4jService service = sessions.get(sessionId);
-            lastUsage.put(sessionId,System.currentTimeMillis());
-            if (service != null) return service;
+            if (service != null) return service.touch();
             if (!create) throw new IllegalStateException("No Service for session "+sessionId+" available");
-            synchronized (sessions) {
-                service = sessions.get(sessionId);
-                if (service != null) return service;
-                LOG.warn("Session created for "+sessionId+" request "+request.getRequestURI());
-                service = createSession();
-                sessions.put(sessionId, service);
-                return service;
+            LOG.warn("Session created for "+sessionId+" request "+request.getRequestURI());
+            Neo4jService created = createSession();
+            service = sessions.putIfAbsent(sessionId, created.touch());
+            if (service == null) {
+                restoreJournal(sessionId, created);
+                Map.Entry<String, Neo4jService> session = new AbstractMap.SimpleImmutableEntry<>(sessionId, created);
+                idleSessions.schedule(session);
+                if (passivations != null) passivations.schedule(session);
+                return created;
             }
+            discard(created);
+            return service.touch();
+        } catch (SessionRejectedException sre) {
+            rejectedSessions.incrementAndGet();
+            LOG.warn("Session rejected for " + sessionId + ": " + sre.getMessage());
+            throw sre;
         } catch (IllegalStateException ise) {
             throw ise;
         } catch (LifecycleException | OutOfMemoryError e) {
-            cleanSessions();
+            recover(request);
             throw e;
         } catch (Throwable t) {
             reset(request);
@@ -100,13 +205,120 @@ class SessionService {
 
     private static Neo4jService createSession() throws Throwable {
         Neo4jService service;
-        service = databaseInfo.shouldCreateNew() ? new Neo4jService() : new Neo4jService(databaseInfo.getDatabase());
+        if (refuseSessions) {
+            throw new SessionRejectedException("The console is running low on memory, please try again in a minute.", SessionRejectedException.SERVICE_UNAVAILABLE, 60);
+        }
+        if (sessions.size() >= MAX_SESSIONS) {
+            throw new SessionRejectedException("The console has too many sessions, please try again in a minute.", SessionRejectedException.SERVICE_UNAVAILABLE, 60);
+        }
+        if (databaseInfo.shouldCreateNew()) {
+            service = database();
+        } else if (databaseInfo.isShared()) {
+            service = new Neo4jService(databaseInfo.getDatabase(), TenantIsolation.newTenant());
+        } else {
+            service = new Neo4jService(databaseInfo.getDatabase());
+        }
         if (databaseInfo.shouldImport()) {
             service.initializeFrom(SubGraph.from(databaseInfo.getDatabase()));
         }
         return service;
     }
 
+    // a session that was evicted comes back with its graph
+    private static void restoreJournal(String sessionId, Neo4jService service) {
+        SessionJournal journal = SessionJournal.unpark(sessionId);
+        if (journal == null || !service.doesOwnDatabase() || service.isTenant()) return;
+        service.getGate().exclusive(() -> {
+            try {
+                service.restore(journal);
+                restoredJournals.incrementAndGet();
+                LOG.warn("Session restored from journal " + sessionId);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not restore session " + sessionId + " from its journal", e);
+                service.clear();
+            }
+            return null;
+        });
+    }
+
+    // a new owned database, for a new session or to restore a passivated one
+    private static Neo4jService database() {
+        memory.admit();
+        Neo4jService service = pool != null ? pool.take() : null;
+        if (service != null) return service;
+        try {
+            return new Neo4jService();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException("Error creating database", t);
+        }
+    }
+
+    // a concurrent request for the same session won, the unused service goes back to the pool
+    private static void discard(Neo4jService service) {
+        if (service.isInitialized() || pool == null || !pool.offer(service)) {
+            service.stop();
+        }
+    }
+
+    /**
+     * Recovers the session of the request after its database failed, other sessions are not affected.
+     */
+    public static void recover(final HttpServletRequest request) {
+        String sessionId = getSessionId(request);
+        Neo4jService service = sessionId == null ? null : sessions.get(sessionId);
+        if (service != null) recover(sessionId, service);
+    }
+
+    // the failed database is replaced and the journal of the session replayed, if that is not possible the session is reset
+    static boolean recover(String sessionId, Neo4jService service) {
+        boolean rebuilt;
+        try {
+            rebuilt = service.getGate().exclusive(() -> service.rebuild(SessionService::database));
+        } catch (RuntimeException | OutOfMemoryError e) {
+            LOG.warn("Error rebuilding session " + sessionId, e);
+            rebuilt = false;
+        }
+        if (rebuilt) {
+            recovered.incrementAndGet();
+            LOG.warn("Session recovered " + sessionId);
+            return true;
+        }
+        if (sessions.remove(sessionId, service)) {
+            resetAfterFailure.incrementAndGet();
+            LOG.warn("Session reset after failure " + sessionId);
+            service.getGate().exclusive(() -> {
+                try {
+                    service.stop();
+                } catch (Exception e) {
+                    LOG.warn("Error stopping failed session " + sessionId, e);
+                }
+                return null;
+            });
+        }
+        return false;
+    }
+
+    /**
+     * Recovers the sessions whose database failed.
+     */
+    static void recoverFailed() {
+        for (Map.Entry<String, Neo4jService> session : sessions.entrySet()) {
+            if (!session.getValue().isHealthy()) recover(session.getKey(), session.getValue());
+        }
+    }
+
+    // errors the JVM can't recover from restart the console, everything else only affects the failed sessions
+    static void uncaughtException(Thread thread, Throwable throwable) {
+        LOG.warn("Uncaught exception in thread " + thread.getName(), throwable);
+        if (throwable instanceof VirtualMachineError && !(throwable instanceof OutOfMemoryError)) {
+            Halt.halt("Unrecoverable error " + throwable);
+            return;
+        }
+        recoverFailed();
+    }
+
     public static void cleanSessions() {
         Set<Map.Entry<String, Neo4jService>> entries = new HashSet<>();
         synchronized(sessions) {
@@ -122,7 +334,6 @@ class SessionService {
                 }
             }
             sessions.remove(entry.getKey());
-            lastUsage.remove(entry.getKey());
         }
     }
 
@@ -133,4 +344,30 @@ class SessionService {
     public static DatabaseInfo getDatabaseInfo() {
         return databaseInfo;
     }
+
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("sessions", sessions.size());
+        metrics.put("maxSessions", MAX_SESSIONS);
+        metrics.put("rejectedSessions", rejectedSessions.get());
+        metrics.put("recovery", MapUtil.map("recovered", recovered.get(), "reset", resetAfterFailure.get()));
+        metrics.put("journals", MapUtil.map("parked", SessionJournal.parkedCount(), "restored", restoredJournals.get()));
+        metrics.put("expiredSessions", idleSessions.getExpired());
+        metrics.put("scheduledTimeouts", idleSessions.getScheduled());
+        if (passivations != null) {
+            long current = sessions.values().stream().filter(Neo4jService::isPassivated).count();
+            metrics.put("passivation", MapUtil.map("afterMillis", PASSIVATE_AFTER, "passivated", current, "total", passivated.get()));
+        }
+        metrics.put("memory", memory.getMetrics());
+        if (monitor != null) metrics.put("gc", monitor.getMetrics());
+        metrics.put("concurrency", ConcurrencyLimiter.getInstance().getMetrics());
+        metrics.put("bulkheads", Bulkhead.getAllMetrics());
+        metrics.put("statements", CypherStatement.getMetrics());
+        metrics.put("queries", QueryCancellation.getMetrics());
+        metrics.put("plans", PlanFingerprints.getMetrics());
+        metrics.put("results", ResultCache.getMetrics());
+        if (pool != null) metrics.put("pool", pool.getMetrics());
+        metrics.put("images", StoreImages.getInstance().getMetrics());
+        return metrics;
+    }
 }
@@ -0,0 +1,158 @@
+package org.neo4j.community.console;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The graph and schema of a passivated session in a compressed file.
+ * Nodes and relationships are stored with their labels, type and properties, the schema as the statements that recreate it.
+ * Unlike the maps of a {@link SubGraph} this keeps properties named {@code id} or {@code labels}.
+ * The ids of the nodes and relationships may change when the snapshot is restored.
+ */
+class SessionSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final File DIRECTORY = new File(Util.setting("console.passivation.dir",
+            new File(System.getProperty("java.io.tmpdir"), "console-sessions").getPath()));
+
+    private final List<NodeData> nodes = new ArrayList<>();
+    private final List<RelationshipData> relationships = new ArrayList<>();
+    private final List<String> schema;
+
+    private SessionSnapshot(GraphDatabaseService gdb) {
+        for (Node node : gdb.getAllNodes()) {
+            nodes.add(new NodeData(node));
+        }
+        for (Relationship relationship : gdb.getAllRelationships()) {
+            relationships.add(new RelationshipData(relationship));
+        }
+        this.schema = schemaStatements(gdb.schema());
+    }
+
+    /**
+     * Writes the graph of the database to a new file in the passivation directory.
+     * @throws IOException if the graph can't be written, e.g. for property values that are not serializable
+     */
+    static File write(GraphDatabaseService gdb) throws IOException {
+        SessionSnapshot snapshot;
+        try (Transaction tx = gdb.beginTx()) {
+            snapshot = new SessionSnapshot(gdb);
+            tx.success();
+        }
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) throw new IOException("Can't create directory " + DIRECTORY);
+        File file = new File(DIRECTORY, UUID.randomUUID() + ".snapshot.gz");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeObject(snapshot);
+        } catch (IOException | RuntimeException e) {
+            delete(file);
+            throw e;
+        }
+        return file;
+    }
+
+    static void restore(File file, GraphDatabaseService gdb) throws IOException {
+        SessionSnapshot snapshot;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            snapshot = (SessionSnapshot) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Invalid snapshot " + file, e);
+        }
+        for (String statement : snapshot.schema) {
+            gdb.execute(statement).close();
+        }
+        try (Transaction tx = gdb.beginTx()) {
+            gdb.schema().awaitIndexesOnline(5, TimeUnit.SECONDS);
+            tx.success();
+        }
+        try (Transaction tx = gdb.beginTx()) {
+            Map<Long, Node> created = new HashMap<>(snapshot.nodes.size());
+            for (NodeData data : snapshot.nodes) {
+                Node node = gdb.createNode();
+                for (String label : data.labels) {
+                    node.addLabel(Label.label(label));
+                }
+                setProperties(node, data.properties);
+                created.put(data.id, node);
+            }
+            for (RelationshipData data : snapshot.relationships) {
+                Relationship relationship = created.get(data.start).createRelationshipTo(created.get(data.end), RelationshipType.withName(data.type));
+                setProperties(relationship, data.properties);
+            }
+            tx.success();
+        }
+    }
+
+    private static void setProperties(PropertyContainer pc, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> property : properties.entrySet()) {
+            pc.setProperty(property.getKey(), property.getValue());
+        }
+    }
+
+    static void delete(File file) {
+        if (file != null && file.exists() && !file.delete()) file.deleteOnExit();
+    }
+
+    // the community edition only has indexes and uniqueness constraints
+    private static List<String> schemaStatements(Schema schema) {
+        List<String> statements = new ArrayList<>();
+        for (ConstraintDefinition constraint : schema.getConstraints()) {
+            if (!constraint.isConstraintType(ConstraintType.UNIQUENESS)) continue;
+            String property = constraint.getPropertyKeys().iterator().next();
+            statements.add("CREATE CONSTRAINT ON (n:" + quote(constraint.getLabel().name()) + ") ASSERT n." + quote(property) + " IS UNIQUE");
+        }
+        for (IndexDefinition index : schema.getIndexes()) {
+            if (index.isConstraintIndex()) continue;
+            StringJoiner properties = new StringJoiner(",", "(", ")");
+            for (String property : index.getPropertyKeys()) {
+                properties.add(quote(property));
+            }
+            Label label = index.getLabels().iterator().next();
+            statements.add("CREATE INDEX ON :" + quote(label.name()) + properties);
+        }
+        return statements;
+    }
+
+    private static String quote(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    private static class NodeData implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final long id;
+        final List<String> labels = new ArrayList<>();
+        final Map<String, Object> properties;
+
+        NodeData(Node node) {
+            this.id = node.getId();
+            for (Label label : node.getLabels()) {
+                labels.add(label.name());
+            }
+            this.properties = new HashMap<>(node.getAllProperties());
+        }
+    }
+
+    private static class RelationshipData implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final long start;
+        final long end;
+        final String type;
+        final Map<String, Object> properties;
+
+        RelationshipData(Relationship relationship) {
+            this.start = relationship.getStartNodeId();
+            this.end = relationship.getEndNodeId();
+            this.type = relationship.getType().name();
+            this.properties = new HashMap<>(relationship.getAllProperties());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package org.neo4j.community.console;
+
+import org.neo4j.graphdb.mockfs.EphemeralFileSystemAbstraction;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Keeps the store files of frequently used init scripts (default graph, shared graphs, tutorials) as in-memory images.
+ * New sessions are materialized by copying an image into a fresh ephemeral file system and starting
+ * the database on it, instead of replaying the init statements.
+ * <p>
+ * An image is built in the background once an init script was executed {@link #MIN_USES} times.
+ * Starting a database from an image only pays off if replaying the script took longer than that startup,
+ * so small scripts keep being replayed unless a pre-started spare database is available for them.
+ */
+class StoreImages {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(StoreImages.class);
+
+    static final boolean ENABLED = Util.setting("console.images", true);
+    static final int MAX_IMAGES = (int) Util.setting("console.images.max", 16);
+    static final long MAX_IMAGE_BYTES = Util.setting("console.images.bytes", 8 * 1024 * 1024);
+    static final int MIN_USES = (int) Util.setting("console.images.uses", 2);
+    static final int MAX_SPARES = (int) Util.setting("console.images.spares", 2);
+    static final int SPARE_USES = (int) Util.setting("console.images.spare.uses", 5);
+    private static final int MAX_TRACKED = 1000;
+    private static final long DEFAULT_START_MILLIS = 250;
+
+    private static final StoreImages INSTANCE = new StoreImages(ENABLED);
+
+    private final boolean enabled;
+    private final Map<String, StoreImage> images = lruMap(MAX_IMAGES);
+    private final Map<String, AtomicInteger> uses = lruMap(MAX_TRACKED);
+    private final Set<String> building = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger spares = new AtomicInteger();
+    private final ExecutorService builder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(MAX_IMAGES), r -> {
+        Thread thread = new Thread(r, "store-images");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong buildFailures = new AtomicLong();
+    private final AtomicLong spareHits = new AtomicLong();
+    private final AtomicLong starts = new AtomicLong();
+    private final AtomicLong startTime = new AtomicLong();
+    private final AtomicLong replays = new AtomicLong();
+
+    StoreImages(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    static StoreImages getInstance() {
+        return INSTANCE;
+    }
+
+    private static <K, V> Map<String, V> lruMap(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                if (size() <= maxSize) return false;
+                if (eldest.getValue() instanceof StoreImage) ((StoreImage) eldest.getValue()).release();
+                return true;
+            }
+        });
+    }
+
+    static String key(String init, String version) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(init.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
+        }
+    }
+
+    /**
+     * Creates a service whose database already contains the graph of the init script, if an image for it exists
+     * and starting from it is cheaper than replaying the statements.
+     * @return the materialized service or null if the caller has to replay the init statements itself
+     */
+    public Neo4jService materialize(String init, String version) {
+        if (!enabled) return null;
+        final StoreImage image = images.get(key(init, version));
+        if (image == null) return null;
+        Neo4jService spare = image.takeSpare();
+        if (spare != null) {
+            spareHits.incrementAndGet();
+            return spare;
+        }
+        if (image.replayMillis <= averageStartMillis()) return null;
+        try {
+            return image.start();
+        } catch (Throwable t) {
+            LOG.warn("Error starting database from store image", t);
+            return null;
+        }
+    }
+
+    /**
+     * Records the execution of an init script by replaying it, triggers building an image
+     * once the script was used often enough.
+     */
+    public void record(String init, String version, Iterable<String> statements, long replayMillis) {
+        if (!enabled) return;
+        replays.incrementAndGet();
+        final String key = key(init, version);
+        AtomicInteger count;
+        synchronized (uses) {
+            count = uses.computeIfAbsent(key, k -> new AtomicInteger());
+        }
+        final int used = count.incrementAndGet();
+        StoreImage image = images.get(key);
+        if (image != null) {
+            if (used >= SPARE_USES) image.prepareSpare();
+            return;
+        }
+        if (used < MIN_USES || !building.add(key)) return;
+        try {
+            builder.execute(() -> {
+                try {
+                    build(key, statements, replayMillis);
+                } finally {
+                    building.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            building.remove(key);
+        }
+    }
+
+    private void build(String key, Iterable<String> statements, long replayMillis) {
+        File storeDir = new File(System.getProperty("java.io.tmpdir"), "console-image-" + key);
+        EphemeralFileSystemAbstraction fileSystem = new EphemeralFileSystemAbstraction();
+        try {
+            Neo4jService service = new Neo4jService(fileSystem, storeDir);
+            try {
+                service.initCypherQueries(statements, null);
+            } finally {
+                service.getGraphDatabase().shutdown();
+            }
+            long size = fileSystem.streamFilesRecursive(storeDir).mapToLong(file -> fileSystem.getFileSize(file.getFile())).sum();
+            if (size > MAX_IMAGE_BYTES) {
+                LOG.warn("Store image " + key + " with " + size + " bytes exceeds " + MAX_IMAGE_BYTES);
+                fileSystem.close();
+                return;
+            }
+            images.put(key, new StoreImage(fileSystem, storeDir, size, replayMillis));
+            builds.incrementAndGet();
+            LOG.warn("Built store image " + key + " with " + size + " bytes, replay took " + replayMillis + " ms");
+        } catch (Throwable t) {
+            buildFailures.incrementAndGet();
+            LOG.warn("Error building store image " + key, t);
+            closeQuietly(fileSystem);
+        }
+    }
+
+    private long averageStartMillis() {
+        long count = starts.get();
+        return count == 0 ? DEFAULT_START_MILLIS : startTime.get() / count;
+    }
+
+    public void clear() {
+        synchronized (images) {
+            for (StoreImage image : images.values()) {
+                image.release();
+            }
+            images.clear();
+        }
+    }
+
+    // the size of the images on the heap
+    long bytes() {
+        long bytes = 0;
+        synchronized (images) {
+            for (StoreImage image : images.values()) {
+                bytes += image.size;
+            }
+        }
+        return bytes;
+    }
+
+    // started databases waiting for a session
+    int spares() {
+        return spares.get();
+    }
+
+    public Map<String, Object> getMetrics() {
+        return map("images", images.size(), "bytes", bytes(), "builds", builds.get(), "buildFailures", buildFailures.get(),
+                "replays", replays.get(), "starts", starts.get(), "avgStartMillis", averageStartMillis(),
+                "spares", spares.get(), "spareHits", spareHits.get());
+    }
+
+    private static void closeQuietly(EphemeralFileSystemAbstraction fileSystem) {
+        try {
+            fileSystem.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private class StoreImage {
+        private final EphemeralFileSystemAbstraction fileSystem;
+        private final File storeDir;
+        private final long size;
+        private final long replayMillis;
+        private Neo4jService spare;
+        private boolean preparing;
+        private boolean released;
+
+        StoreImage(EphemeralFileSystemAbstraction fileSystem, File storeDir, long size, long replayMillis) {
+            this.fileSystem = fileSystem;
+            this.storeDir = storeDir;
+            this.size = size;
+            this.replayMillis = replayMillis;
+        }
+
+        Neo4jService start() throws Throwable {
+            EphemeralFileSystemAbstraction copy;
+            synchronized (this) {
+                if (released) return null;
+                copy = fileSystem.snapshot();
+            }
+            long begin = System.currentTimeMillis();
+            Neo4jService service = new Neo4jService(copy, storeDir);
+            starts.incrementAndGet();
+            startTime.addAndGet(System.currentTimeMillis() - begin);
+            return service;
+        }
+
+        synchronized Neo4jService takeSpare() {
+            Neo4jService result = spare;
+            if (result != null) {
+                spare = null;
+                spares.decrementAndGet();
+                prepareSpare();
+            }
+            return result;
+        }
+
+        synchronized void prepareSpare() {
+            if (spare != null || preparing || released || spares.get() >= MAX_SPARES) return;
+            preparing = true;
+            try {
+                builder.execute(this::startSpare);
+            } catch (RejectedExecutionException ree) {
+                preparing = false;
+            }
+        }
+
+        private void startSpare() {
+            Neo4jService service = null;
+            try {
+                service = start();
+            } catch (Throwable t) {
+                LOG.warn("Error starting spare database from store image", t);
+            }
+            synchronized (this) {
+                preparing = false;
+                if (service == null) return;
+                if (released || spare != null || spares.get() >= MAX_SPARES) {
+                    service.stop();
+                } else {
+                    spare = service;
+                    spares.incrementAndGet();
+                }
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            if (spare != null) {
+                spare.stop();
+                spare = null;
+                spares.decrementAndGet();
+            }
+            closeQuietly(fileSystem);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.neo4j.community.console;
 
 import org.neo4j.graphdb.*;
+import org.neo4j.helpers.collection.Iterators;
 
 import java.util.*;
 
@@ -46,6 +47,7 @@ public class SubGraph {
     public static List<String> getLabelNames(Node node) {
         List<String> labelNames = new ArrayList<>();
         for (Label label : node.getLabels()) {
+            if (TenantIsolation.isTenantLabel(label.name())) continue;
             labelNames.add(label.name());
         }
         return labelNames;
@@ -115,6 +117,21 @@ public class SubGraph {
         return graph;
     }
 
+    // tenants don't have relationships to other tenants, so the outgoing relationships of its nodes are all of them
+    public static SubGraph from(GraphDatabaseService gdb, Label tenant) {
+        final SubGraph graph = new SubGraph();
+        final List<Node> nodes = Iterators.asList(gdb.findNodes(tenant));
+        for (Node node : nodes) {
+            graph.add(node);
+        }
+        for (Node node : nodes) {
+            for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+                graph.add(relationship);
+            }
+        }
+        return graph;
+    }
+
     public static SubGraph from(GraphDatabaseService db, CypherQueryExecutor.CypherResult result) {
         try (Transaction tx = db.beginTx()) {
             final SubGraph graph = new SubGraph();
@@ -0,0 +1,364 @@
+package org.neo4j.community.console;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Isolates the sessions sharing one database: every node created by a session gets the label of its tenant,
+ * the node patterns of MATCH and MERGE clauses are scoped to that label,
+ * a transaction that changes nodes or relationships of another tenant is rolled back,
+ * and result rows with nodes, relationships or paths of other tenants are dropped.
+ * <p>
+ * What can't be scoped is refused, see {@link #checkScopable}: procedure calls, START clauses, pattern comprehensions and
+ * pattern predicates. The schema is shared, so schema statements are refused too.
+ */
+class TenantIsolation extends TransactionEventHandler.Adapter<Void> {
+
+    static final String LABEL_PREFIX = "Tenant_";
+
+    private static final ThreadLocal<Label> current = new ThreadLocal<>();
+    private static final Set<String> PATTERN_CLAUSES = new HashSet<>(asList("MATCH", "MERGE"));
+    private static final Set<String> PATTERN_CREATING_CLAUSES = new HashSet<>(asList("MATCH", "MERGE", "CREATE"));
+    private static final Set<String> CLAUSES = new HashSet<>(asList("MATCH", "MERGE", "OPTIONAL", "CREATE", "WHERE", "WITH", "RETURN",
+            "SET", "DELETE", "DETACH", "REMOVE", "UNWIND", "CALL", "YIELD", "ON", "ORDER", "SKIP", "LIMIT", "FOREACH", "UNION", "LOAD", "USING"));
+
+    static Label newTenant() {
+        return Label.label(LABEL_PREFIX + UUID.randomUUID().toString().replace("-", ""));
+    }
+
+    static GraphDatabaseService install(GraphDatabaseService db) {
+        db.registerTransactionEventHandler(new TenantIsolation());
+        return db;
+    }
+
+    static boolean isTenantLabel(String name) {
+        return name.startsWith(LABEL_PREFIX);
+    }
+
+    /**
+     * Runs the work for the tenant, the transactions it commits on this thread are checked and tagged.
+     */
+    static <T> T as(Label tenant, Supplier<T> work) {
+        if (tenant == null) return work.get();
+        Label previous = current.get();
+        current.set(tenant);
+        try {
+            return work.get();
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        } finally {
+            if (previous == null) current.remove();
+            else current.set(previous);
+        }
+    }
+
+    // the failed commit is wrapped into a TransactionFailureException, report the actual violation
+    private static RuntimeException unwrap(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IsolationException) return (IsolationException) cause;
+        }
+        return e;
+    }
+
+    /**
+     * Adds the label of the tenant to the node patterns of MATCH and MERGE clauses, skipping strings and comments.
+     * Variables that are already bound are left alone in MERGE, Cypher doesn't allow labels on them there.
+     * Anything not recognized as a node pattern stays as it is, the commit check and the result filter still apply.
+     */
+    static String scope(Label tenant, String query) {
+        String label = ":`" + tenant.name().replace("`", "``") + "`";
+        StringBuilder sb = new StringBuilder(query.length() + 64);
+        Set<String> words = new HashSet<>();
+        String clause = "";
+        boolean afterKeyword = false;
+        int nested = 0;
+        int i = 0, length = query.length();
+        while (i < length) {
+            char c = query.charAt(i);
+            int end = CypherStatement.skipLiteral(query, i);
+            if (end > i) {
+                sb.append(query, i, end);
+                words.add(query.substring(i, end));
+                afterKeyword = false;
+                i = end;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(query.charAt(end))) end++;
+                String word = query.substring(i, end);
+                String upper = word.toUpperCase();
+                afterKeyword = nested == 0 && CLAUSES.contains(upper);
+                if (afterKeyword) clause = upper;
+                words.add(word);
+                sb.append(word);
+                i = end;
+                continue;
+            }
+            if (c == '{' || c == '[') nested++;
+            if ((c == '}' || c == ']') && nested > 0) nested--;
+            if (c == '(' && nested == 0 && PATTERN_CLAUSES.contains(clause) && (afterKeyword || startsPattern(sb))) {
+                end = nodePatternEnd(query, i);
+                if (end > 0 && (clause.equals("MATCH") || !isBound(query, i, end, words))) {
+                    words.add(query.substring(i + 1, skipName(query, skipWhitespace(query, i + 1))).trim());
+                    sb.append(query, i, end).append(label);
+                    i = end;
+                    afterKeyword = false;
+                    continue;
+                }
+            }
+            if (!Character.isWhitespace(c)) afterKeyword = false;
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Refuses the statement if it could reach data of other tenants without a MATCH or MERGE pattern: procedure calls,
+     * START clauses and relationship patterns outside of the patterns of MATCH, MERGE and CREATE,
+     * which are pattern comprehensions and pattern predicates like {@code WHERE (n)-->()} or {@code size((n)-->())}.
+     */
+    static void checkScopable(String query) {
+        String clause = "";
+        int nested = 0;
+        int i = 0, length = query.length();
+        while (i < length) {
+            char c = query.charAt(i);
+            int end = CypherStatement.skipLiteral(query, i);
+            if (end > i) {
+                i = end;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(query.charAt(end))) end++;
+                String upper = query.substring(i, end).toUpperCase();
+                if (!isNameAt(query, i)) {
+                    if (upper.equals("CALL") && isProcedureName(query, end)) throw unscopable("Procedure calls");
+                    if (upper.equals("START") && isStartVariable(query, end)) throw unscopable("START clauses");
+                    if (nested == 0 && CLAUSES.contains(upper)) clause = upper;
+                }
+                i = end;
+                continue;
+            }
+            if (c == '{' || c == '[') nested++;
+            if ((c == '}' || c == ']') && nested > 0) nested--;
+            if (c == ')' && startsRelationship(query, i + 1) && (nested > 0 || !PATTERN_CREATING_CLAUSES.contains(clause))) {
+                throw unscopable("Pattern comprehensions and pattern predicates");
+            }
+            i++;
+        }
+    }
+
+    // property keys, labels, relationship types, parameters and node variables are no keywords
+    private static boolean isNameAt(String query, int i) {
+        int before = i - 1;
+        while (before >= 0 && Character.isWhitespace(query.charAt(before))) before--;
+        return before >= 0 && ".:$(".indexOf(query.charAt(before)) >= 0;
+    }
+
+    // a qualified name or one followed by (, like the procedure name after CALL
+    private static boolean isProcedureName(String query, int i) {
+        int start = skipWhitespace(query, i);
+        int end = skipName(query, start);
+        if (end == start) return false;
+        boolean qualified = false;
+        while (end < query.length() && (query.charAt(end) == '.' || Character.isJavaIdentifierPart(query.charAt(end)))) {
+            qualified |= query.charAt(end) == '.';
+            end++;
+        }
+        end = skipWhitespace(query, end);
+        return qualified || end < query.length() && query.charAt(end) == '(';
+    }
+
+    // a name followed by =, like the variable after START
+    private static boolean isStartVariable(String query, int i) {
+        int start = skipWhitespace(query, i);
+        int end = skipName(query, start);
+        if (end == start) return false;
+        end = skipWhitespace(query, end);
+        return end < query.length() && query.charAt(end) == '=';
+    }
+
+    // -[, --(, -->, <-[ or <-- after the closing parenthesis of a node
+    private static boolean startsRelationship(String query, int i) {
+        i = skipWhitespace(query, i);
+        boolean incoming = query.startsWith("<", i);
+        if (incoming) i++;
+        if (!query.startsWith("-", i)) return false;
+        i = skipWhitespace(query, i + 1);
+        if (i >= query.length()) return false;
+        if (query.charAt(i) == '[') return true;
+        if (query.charAt(i) != '-') return false;
+        if (incoming) return true;
+        i = skipWhitespace(query, i + 1);
+        return i < query.length() && (query.charAt(i) == '(' || query.charAt(i) == '>');
+    }
+
+    private static IsolationException unscopable(String what) {
+        return new IsolationException(what + " are not available in a shared database");
+    }
+
+    private static boolean startsPattern(StringBuilder sb) {
+        for (int i = sb.length() - 1; i >= 0; i--) {
+            char c = sb.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            return c == ',' || c == '-' || c == '>' || c == '<' || c == '=' || c == '(';
+        }
+        return false;
+    }
+
+    // the position after the variable and labels of a node pattern starting at the parenthesis, -1 if it is none
+    private static int nodePatternEnd(String query, int start) {
+        int i = skipName(query, skipWhitespace(query, start + 1));
+        int end = i;
+        while (true) {
+            i = skipWhitespace(query, end);
+            if (i >= query.length() || query.charAt(i) != ':') break;
+            int name = skipWhitespace(query, i + 1);
+            int next = skipName(query, name);
+            if (next == name) return -1;
+            end = next;
+        }
+        i = skipWhitespace(query, end);
+        return i < query.length() && (query.charAt(i) == ')' || query.charAt(i) == '{') ? end : -1;
+    }
+
+    private static int skipWhitespace(String query, int i) {
+        while (i < query.length() && Character.isWhitespace(query.charAt(i))) i++;
+        return i;
+    }
+
+    private static int skipName(String query, int i) {
+        if (i >= query.length()) return i;
+        if (query.charAt(i) == '`') return CypherStatement.skipLiteral(query, i);
+        if (!Character.isJavaIdentifierStart(query.charAt(i))) return i;
+        while (i < query.length() && Character.isJavaIdentifierPart(query.charAt(i))) i++;
+        return i;
+    }
+
+    // a bare variable that was mentioned before, with labels or properties it would have to be a new node
+    private static boolean isBound(String query, int start, int end, Set<String> words) {
+        String pattern = query.substring(start + 1, end).trim();
+        if (pattern.isEmpty() || pattern.contains(":")) return false;
+        if (query.charAt(skipWhitespace(query, end)) == '{') return false;
+        return words.contains(pattern);
+    }
+
+    static boolean owns(Label tenant, Object value) {
+        if (value instanceof Node) return ((Node) value).hasLabel(tenant);
+        if (value instanceof Relationship) return ((Relationship) value).getStartNode().hasLabel(tenant);
+        if (value instanceof Path) return owns(tenant, ((Path) value).nodes());
+        if (value instanceof Map) return owns(tenant, ((Map) value).values());
+        if (value instanceof Iterable) {
+            for (Object inner : (Iterable) value) {
+                if (!owns(tenant, inner)) return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Void beforeCommit(TransactionData data) throws Exception {
+        Label tenant = current.get();
+        if (tenant == null) return null;
+        Set<Long> created = new HashSet<>();
+        for (Node node : data.createdNodes()) {
+            created.add(node.getId());
+        }
+        // deleted nodes can't be read anymore, their labels show up as removed labels
+        Set<Long> deletedOwned = new HashSet<>();
+        for (LabelEntry entry : data.removedLabels()) {
+            String name = entry.label().name();
+            if (!isTenantLabel(name)) continue;
+            if (!data.isDeleted(entry.node())) throw reserved();
+            if (name.equals(tenant.name())) deletedOwned.add(entry.node().getId());
+        }
+        // scoped MERGE patterns create nodes with the label of the tenant
+        for (LabelEntry entry : data.assignedLabels()) {
+            String name = entry.label().name();
+            if (!isTenantLabel(name)) continue;
+            if (!name.equals(tenant.name()) || !created.contains(entry.node().getId())) throw reserved();
+        }
+        Checker checker = new Checker(data, tenant, created, deletedOwned);
+        for (Node node : data.deletedNodes()) {
+            checker.check(node);
+        }
+        for (LabelEntry entry : data.assignedLabels()) {
+            checker.check(entry.node());
+        }
+        for (LabelEntry entry : data.removedLabels()) {
+            checker.check(entry.node());
+        }
+        for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+            checker.check(entry.entity());
+        }
+        for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+            checker.check(entry.entity());
+        }
+        for (Relationship rel : data.createdRelationships()) {
+            checker.check(rel.getStartNode());
+            checker.check(rel.getEndNode());
+        }
+        for (Relationship rel : data.deletedRelationships()) {
+            checker.check(rel.getStartNode());
+        }
+        for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) {
+            if (!data.isDeleted(entry.entity())) checker.check(entry.entity().getStartNode());
+        }
+        for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) {
+            if (!data.isDeleted(entry.entity())) checker.check(entry.entity().getStartNode());
+        }
+        for (Node node : data.createdNodes()) {
+            if (!data.isDeleted(node)) node.addLabel(tenant);
+        }
+        return null;
+    }
+
+    private static class Checker {
+        private final TransactionData data;
+        private final Label tenant;
+        private final Set<Long> created;
+        private final Set<Long> deletedOwned;
+
+        Checker(TransactionData data, Label tenant, Set<Long> created, Set<Long> deletedOwned) {
+            this.data = data;
+            this.tenant = tenant;
+            this.created = created;
+            this.deletedOwned = deletedOwned;
+        }
+
+        void check(Node node) {
+            long id = node.getId();
+            if (created.contains(id)) return;
+            boolean owned = data.isDeleted(node) ? deletedOwned.contains(id) : node.hasLabel(tenant);
+            if (!owned) throw violation();
+        }
+    }
+
+    private static IsolationException reserved() {
+        return new IsolationException("Labels starting with " + LABEL_PREFIX + " are reserved");
+    }
+
+    private static IsolationException violation() {
+        return new IsolationException("The statement changes data of another session");
+    }
+
+    static class IsolationException extends IllegalStateException {
+        IsolationException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.neo4j.community.console;
+
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools for Jetty. By default the bounded platform thread pool, with {@code console.threads.virtual=true}
+ * every request runs on its own virtual thread, so that slow queries or remote calls don't use up the pool.
+ * Virtual threads need Java 21, they are looked up reflectively as we compile for Java 8,
+ * on older runtimes the platform thread pool is used.
+ */
+class ThreadPools {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(ThreadPools.class);
+
+    static final boolean VIRTUAL = Util.setting("console.threads.virtual", false);
+    static final int MAX_THREADS = (int) Util.setting("console.threads.max", 200);
+    private static final int MIN_THREADS = 8;
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    static ThreadPool create() {
+        if (VIRTUAL) {
+            ThreadPool pool = virtual();
+            if (pool != null) return pool;
+            LOG.warn("Virtual threads are not available on Java " + System.getProperty("java.version") + ", using platform threads");
+        }
+        return platform(MAX_THREADS);
+    }
+
+    static ThreadPool platform(int maxThreads) {
+        QueuedThreadPool pool = new QueuedThreadPool(maxThreads, Math.min(MIN_THREADS, maxThreads));
+        pool.setName("console");
+        return pool;
+    }
+
+    /**
+     * @return a thread pool that runs each task on a virtual thread or null if the runtime doesn't support them
+     */
+    static ThreadPool virtual() {
+        final ThreadFactory factory = virtualThreadFactory("console-virtual-");
+        if (factory == null) return null;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>());
+        // no reserved threads, there is no point in keeping virtual threads spinning for work
+        ExecutorThreadPool pool = new ExecutorThreadPool(executor, 0) {
+            @Override
+            protected Thread newThread(Runnable job) {
+                return factory.newThread(job);
+            }
+        };
+        pool.setName("console-virtual");
+        return pool;
+    }
+
+    // Thread.ofVirtual().name(prefix, 0).factory()
+    static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static boolean virtualThreadsAvailable() {
+        return virtualThreadFactory("probe-") != null;
+    }
+}
@@ -0,0 +1,131 @@
+package org.neo4j.community.console;
+
+import org.slf4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hashed timing wheel for idle timeouts. Items are put into the slot of their deadline, each tick only visits
+ * the items of the current slot.
+ * <p>
+ * Deadlines are evaluated lazily: touching an item only updates its own timestamp, when its slot comes up
+ * the item is either expired or moved to the slot of its new deadline. A deadline of {@link #CANCELLED}
+ * drops the item without expiring it.
+ */
+class TimingWheel<T> {
+
+    private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(TimingWheel.class);
+
+    static final long CANCELLED = -1;
+
+    private final long tickMillis;
+    private final Queue<T>[] slots;
+    private final ToLongFunction<T> deadline;
+    private final Consumer<T> onExpire;
+    private final AtomicInteger scheduled = new AtomicInteger();
+    private final AtomicLong expired = new AtomicLong();
+    private long lastTick;
+    private ScheduledExecutorService ticker;
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param spanMillis time covered by one revolution, should be at least the longest timeout
+     * @param deadline   current deadline of an item in millis, or {@link #CANCELLED}
+     * @param onExpire   called (on the ticker thread) for items whose deadline has passed
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMillis, long spanMillis, ToLongFunction<T> deadline, Consumer<T> onExpire) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("Tick must be positive " + tickMillis);
+        this.tickMillis = tickMillis;
+        this.deadline = deadline;
+        this.onExpire = onExpire;
+        int size = (int) Math.max(1, (spanMillis + tickMillis - 1) / tickMillis + 1);
+        this.slots = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.lastTick = tick(System.currentTimeMillis());
+    }
+
+    public synchronized TimingWheel<T> start(String name) {
+        if (ticker != null) return this;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> advance(System.currentTimeMillis()), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (ticker == null) return;
+        ticker.shutdownNow();
+        ticker = null;
+    }
+
+    public void schedule(T item) {
+        long due = deadline.applyAsLong(item);
+        if (due == CANCELLED) return;
+        add(item, due, System.currentTimeMillis());
+    }
+
+    private void add(T item, long due, long now) {
+        long tick = Math.max(tick(due), tick(now) + 1);
+        slots[(int) (tick % slots.length)].add(item);
+        scheduled.incrementAndGet();
+    }
+
+    /**
+     * Processes all slots up to the given time, only one thread advances the wheel at a time.
+     */
+    synchronized void advance(long now) {
+        long currentTick = tick(now);
+        long last = Math.max(lastTick, currentTick - slots.length);
+        for (long tick = last + 1; tick <= currentTick; tick++) {
+            process(slots[(int) (tick % slots.length)], now);
+        }
+        lastTick = Math.max(lastTick, currentTick);
+    }
+
+    private void process(Queue<T> slot, long now) {
+        // only the items present now, items re-added to this slot are due in a later revolution
+        for (int count = slot.size(); count > 0; count--) {
+            T item = slot.poll();
+            if (item == null) return;
+            scheduled.decrementAndGet();
+            try {
+                long due = deadline.applyAsLong(item);
+                if (due == CANCELLED) continue;
+                if (due <= now) {
+                    expired.incrementAndGet();
+                    onExpire.accept(item);
+                } else {
+                    add(item, due, now);
+                }
+            } catch (Exception e) {
+                LOG.warn("Error expiring " + item, e);
+            }
+        }
+    }
+
+    private long tick(long millis) {
+        return millis / tickMillis;
+    }
+
+    public int getScheduled() {
+        return scheduled.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+}
@@ -24,4 +24,36 @@ public class Util {
         } while (value > 0);
         return result.toString();
     }
+
+    /**
+     * Reads a numeric setting from the system property {@code name} or, if not set,
+     * from the environment variable {@code NAME} with dots replaced by underscores (e.g. {@code CONSOLE_POOL_MIN}).
+     */
+    public static long setting(String name, long defaultValue) {
+        String value = settingValue(name);
+        if (value == null) return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    public static boolean setting(String name, boolean defaultValue) {
+        String value = settingValue(name);
+        if (value == null) return defaultValue;
+        return Boolean.parseBoolean(value);
+    }
+
+    public static String setting(String name, String defaultValue) {
+        String value = settingValue(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static String settingValue(String name) {
+        String value = System.getProperty(name);
+        if (value == null) value = System.getenv(name.toUpperCase().replace('.', '_'));
+        if (value == null || value.trim().isEmpty()) return null;
+        return value.trim();
+    }
 }
@@ -296,7 +296,7 @@ function inputQuery(query) {
 function infoImage(data) {
     var text = "";
     for (var title in data) {
-        if (data.hasOwnProperty(title)) {
+        if (data.hasOwnProperty(title) && data[title] !== undefined) {
             text += "<h4>" + title + "</h4>" + data[title] + "\n";
         }
     }
@@ -322,7 +322,7 @@ function showResults(data) {
         append($("#output"), computeInfo(data));
         $("#output").append(infoImage({
             "Query Results": data.result,
-            "Execution Plan": data.plan
+            "Execution Plan": data.plan || "Check Profile under Options to see the execution plan of the next queries."
         }));
         append($("#output"), "\n");
     }
@@ -429,8 +429,12 @@ function handleMessage(msg) {
     }
 }
 
+// queries are only profiled on request, the Result Details show the plan of profiled queries
 function getPostQueryParams() {
-    return vizVisible ? "" : "?viz=none";
+    var params = [];
+    if (!vizVisible) params.push("viz=none");
+    if ($('#profile').is(':checked')) params.push("plan=profile");
+    return params.length ? "?" + params.join("&") : "";
 }
 
 function sendNext(msg) {
@@ -460,6 +464,8 @@ function close(id) {
 
 function sendInit(params, callId) {
     post("console/init", JSON.stringify(params), function (json) {
+        cancel_token = json.cancelToken;
+        delete json.cancelToken;
         showResults(json);
         showVersion(json);
         showWelcome(json);
@@ -507,6 +513,15 @@ function handleSelection(data, show_result_only) {
 }
 
 var session_id=guid();
+var cancel_token=null;
+
+// stop the queries of this page on the server when it is closed, a beacon can't set the session header
+// so it sends the token the server handed out for this session
+$(window).on("pagehide", function () {
+    if (navigator.sendBeacon && cancel_token) {
+        navigator.sendBeacon("console/cancel?session=" + encodeURIComponent(session_id) + "&token=" + encodeURIComponent(cancel_token), "");
+    }
+});
 
 $(document).ready(
     function () {
@@ -0,0 +1,51 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+
+public class ApocProceduresTest {
+
+    @Test
+    public void testDescriptor() throws Exception {
+        ApocProcedures.Descriptor descriptor = ApocProcedures.descriptor(apoc.spatial.Geocode.class);
+        assertTrue(descriptor.procedures);
+        assertTrue(descriptor.names.contains("apoc.spatial.geocode"));
+        assertTrue(descriptor.isUsedBy("call apoc.spatial.geocode('berlin')"));
+        assertFalse(descriptor.isUsedBy("match (n) return n"));
+        assertSame(descriptor, ApocProcedures.descriptor(apoc.spatial.Geocode.class));
+    }
+
+    @Test
+    public void testRegisterRarelyUsedProceduresOnFirstUse() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            assertTrue(hasProcedure(service.getGraphDatabase(), "apoc.coll.zipToRows"));
+            assertFalse(hasProcedure(service.getGraphDatabase(), "apoc.spatial.geocode"));
+            service.cypherQuery("RETURN 'apoc.spatial.geocode' AS name", null);
+            assertTrue(hasProcedure(service.getGraphDatabase(), "apoc.spatial.geocode"));
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testDontRegisterInForeignDatabase() throws Throwable {
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            new Neo4jService(db).cypherQuery("RETURN 'apoc.spatial.geocode' AS name", null);
+            assertFalse(hasProcedure(db, "apoc.spatial.geocode"));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private boolean hasProcedure(GraphDatabaseService db, String name) {
+        Procedures procedures = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Procedures.class);
+        return procedures.getAllProcedures().stream().anyMatch(signature -> signature.name().toString().equalsIgnoreCase(name));
+    }
+}
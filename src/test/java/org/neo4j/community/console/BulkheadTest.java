@@ -0,0 +1,72 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class BulkheadTest {
+
+    @Test
+    public void testAcquireAndRelease() {
+        Bulkhead bulkhead = new Bulkhead("test", 2, 0, 100);
+        bulkhead.acquire();
+        bulkhead.acquire();
+        assertEquals(2, bulkhead.getMetrics().get("active"));
+        assertEquals(100, bulkhead.getMetrics().get("saturation"));
+        bulkhead.release();
+        bulkhead.release();
+        assertEquals(0, bulkhead.getMetrics().get("active"));
+        assertEquals(2L, bulkhead.getMetrics().get("requests"));
+    }
+
+    @Test
+    public void testRejectsRightAwayWhenQueueIsFull() {
+        Bulkhead bulkhead = new Bulkhead("test", 1, 0, 5000);
+        bulkhead.acquire();
+        long start = System.currentTimeMillis();
+        try {
+            bulkhead.acquire();
+            fail("should have been rejected");
+        } catch (SessionRejectedException expected) {
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(1L, bulkhead.getMetrics().get("rejected"));
+        }
+        bulkhead.release();
+    }
+
+    @Test
+    public void testQueuedRequestGetsSlot() throws Exception {
+        final Bulkhead bulkhead = new Bulkhead("test", 1, 1, 5000);
+        bulkhead.acquire();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> queued = executor.submit(() -> {
+            bulkhead.acquire();
+            bulkhead.release();
+            return "done";
+        });
+        while (bulkhead.getMetrics().get("queued").equals(0)) Thread.sleep(5);
+        try {
+            bulkhead.acquire();
+            fail("queue should be full");
+        } catch (SessionRejectedException expected) {
+            // ok
+        }
+        bulkhead.release();
+        assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getMetrics().get("maxQueued"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBulkheadsAreSeparate() {
+        Bulkhead.get("first").acquire();
+        try {
+            assertEquals(0, Bulkhead.get("second").getMetrics().get("active"));
+            assertTrue(Bulkhead.getAllMetrics().containsKey("first"));
+        } finally {
+            Bulkhead.get("first").release();
+        }
+    }
+}
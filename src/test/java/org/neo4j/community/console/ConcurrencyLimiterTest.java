@@ -0,0 +1,118 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testRunsWithinLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 100);
+        assertEquals("ok", limiter.call(() -> "ok"));
+        assertEquals(1L, limiter.getMetrics().get("requests"));
+        assertEquals(0, limiter.getMetrics().get("active"));
+    }
+
+    @Test
+    public void testSleepReleasesThePermit() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 50);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch sleeping = new CountDownLatch(1);
+        assertEquals("slept", limiter.call(() -> {
+            executor.submit(() -> {
+                sleeping.await(5, TimeUnit.SECONDS);
+                return limiter.call(() -> "meanwhile");
+            });
+            sleeping.countDown();
+            limiter.sleep(500);
+            assertEquals(0, limiter.getMetrics().get("waiting"));
+            return "slept";
+        }));
+        assertEquals(2L, limiter.getMetrics().get("requests"));
+        assertEquals(0L, limiter.getMetrics().get("rejected"));
+        assertEquals(0, limiter.getMetrics().get("active"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRejectsWhenNoPermitInTime() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 50);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> blocking = executor.submit(() -> limiter.call(() -> {
+            running.countDown();
+            return finish.await(5, TimeUnit.SECONDS);
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        try {
+            limiter.call(() -> "too late");
+            fail("should have been rejected");
+        } catch (SessionRejectedException expected) {
+            assertEquals(1L, limiter.getMetrics().get("rejected"));
+        }
+        finish.countDown();
+        assertEquals(true, blocking.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testShedsLoadWhenQueueIsFull() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0, 5000);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> blocking = executor.submit(() -> limiter.call(() -> {
+            running.countDown();
+            return finish.await(5, TimeUnit.SECONDS);
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        try {
+            limiter.call(() -> "queued");
+            fail("should have been shed");
+        } catch (SessionRejectedException expected) {
+            assertEquals(429, expected.getStatus());
+            assertEquals(1, expected.getRetryAfterSeconds());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(1L, limiter.getMetrics().get("shed"));
+        }
+        finish.countDown();
+        assertEquals(true, blocking.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testWaitsNoLongerThanDeadline() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 10, 5000);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Object> blocking = executor.submit(() -> limiter.call(() -> {
+            running.countDown();
+            return finish.await(5, TimeUnit.SECONDS);
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        long start = System.currentTimeMillis();
+        try {
+            limiter.call(() -> "too late", start + 50);
+            fail("should have been rejected");
+        } catch (SessionRejectedException expected) {
+            assertEquals(503, expected.getStatus());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+        finish.countDown();
+        assertEquals(true, blocking.get(5, TimeUnit.SECONDS));
+        assertEquals("in time", limiter.call(() -> "in time", System.currentTimeMillis() - 1));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFallBackToPlatformThreads() throws Exception {
+        assertNotNull(ThreadPools.platform(10));
+        assertEquals(ThreadPools.virtualThreadsAvailable(), ThreadPools.virtual() != null);
+    }
+}
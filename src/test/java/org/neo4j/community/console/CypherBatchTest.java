@@ -0,0 +1,58 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+public class CypherBatchTest {
+
+    @Test
+    public void testOnlyLastStatementReturnsResultByDefault() {
+        CypherBatch batch = CypherBatch.fromMaps(Arrays.asList(
+                map("statement", "CREATE (:Person {name:$name})", "parameters", map("name", "Alice")),
+                map("statement", "MATCH (n) RETURN n", "result", false),
+                map("statement", "MATCH (n) RETURN count(n)")), map("name", "Bob"), true);
+        List<CypherBatch.Statement> statements = new ArrayList<>();
+        batch.forEach(statements::add);
+        assertEquals(3, batch.size());
+        assertEquals("Alice", statements.get(0).params.get("name"));
+        assertFalse(statements.get(0).result);
+        assertEquals("Bob", statements.get(1).params.get("name"));
+        assertFalse(statements.get(1).result);
+        assertTrue(statements.get(2).result);
+    }
+
+    @Test
+    public void testScriptIsSplitIntoStatements() {
+        Iterator<CypherBatch.Statement> statements = CypherBatch.fromScript("CREATE (:A);\nCREATE (:B);\nMATCH (n) RETURN n", null, false).iterator();
+        assertFalse(statements.next().result);
+        assertFalse(statements.next().result);
+        CypherBatch.Statement last = statements.next();
+        assertEquals("MATCH (n) RETURN n", last.query);
+        assertTrue(last.result);
+        assertFalse(statements.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyBatchIsRejected() {
+        CypherBatch.fromScript(" ; // nothing", null, true);
+    }
+
+    @Test
+    public void testPeriodicCommitNeedsItsOwnTransaction() {
+        String load = "USING PERIODIC COMMIT LOAD CSV FROM 'file:///x.csv' AS line CREATE (:Line)";
+        assertEquals(1, CypherBatch.fromScript(load, null, false).size());
+        try {
+            CypherBatch.fromScript(load, null, true);
+            fail("Periodic commit should be rejected in one transaction");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("transaction=each"));
+        }
+    }
+}
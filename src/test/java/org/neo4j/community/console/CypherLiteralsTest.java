@@ -0,0 +1,39 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+public class CypherLiteralsTest {
+
+    @Test
+    public void testLiteralsBecomeParameters() {
+        CypherLiterals.Parameterized parameterized = CypherLiterals.parameterize(
+                "MATCH (n:Person {name:'Neo', `age`:42})-[:KNOWS]->(m) WHERE m.score > 1.5 AND m.text = \"it\\'s\\n\" AND m.id = $id SET m.seen = 'yes' RETURN m.name, 'x' AS x LIMIT 10",
+                map("id", 7));
+        assertEquals("MATCH (n:Person {name:$_literal0, `age`:$_literal1})-[:KNOWS]->(m) WHERE m.score > $_literal2 AND m.text = $_literal3 AND m.id = $id SET m.seen = $_literal4 RETURN m.name, 'x' AS x LIMIT 10",
+                parameterized.query);
+        assertEquals(map("id", 7, "_literal0", "Neo", "_literal1", 42L, "_literal2", 1.5, "_literal3", "it's\n", "_literal4", "yes"), parameterized.params);
+    }
+
+    @Test
+    public void testLiteralsThatMustStay() {
+        assertEquals("CYPHER 3.5 MATCH (n)-[*2..3]->(m)-[*3]->() WHERE n.id = $_literal0 * 2 AND n.mask = 0x1F AND n.octal = 017 RETURN m",
+                CypherLiterals.parameterize("CYPHER 3.5 MATCH (n)-[*2..3]->(m)-[*3]->() WHERE n.id = 1 * 2 AND n.mask = 0x1F AND n.octal = 017 RETURN m", null).query);
+        assertNull(CypherLiterals.parameterize("MATCH (n) RETURN n.name, 1", null));
+        assertEquals("LOAD CSV FROM $_literal0 AS line FIELDTERMINATOR ';' CREATE (:Line)",
+                CypherLiterals.parameterize("LOAD CSV FROM 'file:///x.csv' AS line FIELDTERMINATOR ';' CREATE (:Line)", null).query);
+        assertNull(CypherLiterals.parameterize("MATCH (n {name:'Neo'}) WHERE n.id = {id} RETURN n", null));
+        assertNull(CypherLiterals.parameterize("CREATE INDEX ON :Person(name)", null));
+        assertNull(CypherLiterals.parameterize("PROFILE MATCH (n {name:'Neo'}) RETURN n", null));
+        assertNull(CypherLiterals.parameterize("USING PERIODIC COMMIT 10 LOAD CSV FROM 'file:///x.csv' AS line CREATE (:Line)", null));
+        assertNull(CypherLiterals.parameterize("MATCH (n {name:'\\q'}) RETURN n", null));
+    }
+
+    @Test
+    public void testUnionPartsReturnColumns() {
+        assertEquals("MATCH (n {id:$_literal0}) RETURN n, 1 AS x UNION MATCH (n {id:$_literal1}) RETURN n, 2 AS x",
+                CypherLiterals.parameterize("MATCH (n {id:1}) RETURN n, 1 AS x UNION MATCH (n {id:2}) RETURN n, 2 AS x", null).query);
+    }
+}
@@ -10,6 +10,7 @@ import org.neo4j.cypher.SyntaxException;
 import org.neo4j.graphdb.*;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
 
@@ -222,6 +223,79 @@ public class CypherQueryExecutorTest {
         CypherQueryExecutor.CypherResult result = cypherQueryExecutor.cypherQuery("match (n) return n UNION match (n) return n", null);
         assertEquals(1,result.getRowCount());
     }
+    @Test
+    public void testPlanOnlyOnRequest() throws Exception {
+        CypherQueryExecutor.CypherResult result = cypherQueryExecutor.cypherQuery("MATCH (n) RETURN n", null);
+        assertFalse(result.hasPlan());
+        assertNull(result.getPlanTree());
+
+        result = cypherQueryExecutor.cypherQuery("MATCH (n) RETURN n", null, null, PlanMode.PROFILE);
+        Map<String, Object> tree = result.getPlanTree();
+        assertEquals("ProduceResults", tree.get("operator"));
+        assertEquals(1L, tree.get("rows"));
+        List children = (List) tree.get("children");
+        assertEquals("AllNodesScan", ((Map) children.get(0)).get("operator"));
+        assertTrue((Long) ((Map) children.get(0)).get("dbHits") > 0);
+
+        result = cypherQueryExecutor.cypherQuery("CREATE (n:Explained) RETURN n", null, null, PlanMode.EXPLAIN);
+        assertTrue(result.getPlanTree().containsKey("estimatedRows"));
+        assertFalse(result.getPlanTree().containsKey("dbHits"));
+        assertEquals(0, cypherQueryExecutor.cypherQuery("MATCH (n:Explained) RETURN n", null).getRowCount());
+
+        result = cypherQueryExecutor.cypherQuery("PROFILE MATCH (n) RETURN n", null);
+        assertTrue(result.getPlanTree().containsKey("dbHits"));
+    }
+
+    @Test
+    public void testLiteralsShareOnePlan() throws Exception {
+        long compiled = PlanFingerprints.compiled();
+        for (String name : asList("Neo", "Trinity", "Morpheus")) {
+            CypherQueryExecutor.CypherResult result = cypherQueryExecutor.cypherQuery("CREATE (n:Crew {name:'" + name + "'}) RETURN n.name AS name", null);
+            assertEquals(name, result.getRows().iterator().next().get("name"));
+        }
+        assertEquals(1, PlanFingerprints.compiled() - compiled);
+        assertEquals(3L, cypherQueryExecutor.cypherQuery("MATCH (n:Crew) RETURN count(*) AS c", null).getRows().iterator().next().get("c"));
+    }
+
+    @Test
+    public void testRunsStatementAsItIsIfRewriteDoesNotCompile() throws Exception {
+        String query = "MATCH (n) WHERE n.name = 'unsafe' RETURN count(n) AS c";
+        CypherLiterals.verified(CypherLiterals.parameterize(query, null).query, false);
+        long compiled = PlanFingerprints.compiled();
+        assertEquals(0L, cypherQueryExecutor.cypherQuery(query, null).getRows().iterator().next().get("c"));
+        assertEquals(0L, cypherQueryExecutor.cypherQuery(query.replace("unsafe", "other"), null).getRows().iterator().next().get("c"));
+        assertEquals(2, PlanFingerprints.compiled() - compiled);
+    }
+
+    @Test
+    public void testStreamRowsAsNdjson() throws Exception {
+        StringWriter writer = new StringWriter();
+        Map<String, Object> stats = cypherQueryExecutor.streamQuery("UNWIND range(1,3) AS i CREATE (n:Item {id:i}) RETURN i, n", null, null, ResultStream.ndjson(writer));
+        assertEquals(3, stats.get("rows"));
+        assertEquals(3, stats.get("nodesCreated"));
+        String[] lines = writer.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("{\"columns\":[\"i\",\"n\"]}", lines[0]);
+        Map row = new Gson().fromJson(lines[1], Map.class);
+        assertEquals(1.0, row.get("i"));
+        assertEquals(asList("Item"), ((Map) row.get("n")).get("_labels"));
+        assertEquals(3.0, ((Map) new Gson().fromJson(lines[4], Map.class).get("stats")).get("rows"));
+    }
+
+    @Test
+    public void testStreamRowsAsJson() throws Exception {
+        StringWriter writer = new StringWriter();
+        cypherQueryExecutor.streamQuery("UNWIND range(1,2) AS i RETURN i", "3.5", null, ResultStream.json(writer));
+        Map result = new Gson().fromJson(writer.toString(), Map.class);
+        assertEquals(asList("i"), result.get("columns"));
+        assertEquals(asList(map("i", 1.0), map("i", 2.0)), result.get("rows"));
+        assertEquals(2.0, ((Map) result.get("stats")).get("rows"));
+
+        writer = new StringWriter();
+        ResultStream.json(writer).error("failed");
+        assertEquals("{\"error\":\"failed\"}", writer.toString());
+    }
+
     @Test
     public void testHandlePeriodicCommit() throws Exception {
         String query = "USING PERIODIC COMMIT\n" +
@@ -0,0 +1,47 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class CypherScriptTest {
+
+    @Test
+    public void testSplitsOnSemicolonsOutsideOfLiterals() {
+        String script = "CREATE (:A {text:'a;\\n b'});\n" +
+                "CREATE (:`B;C` {text:\"it\\\"s; fine\"}); CREATE (:D)\n" +
+                "// a comment; with a semicolon\n" +
+                "MATCH (n) /* and; another */ RETURN n;\n";
+        assertEquals(asList("CREATE (:A {text:'a;\\n b'})", "CREATE (:`B;C` {text:\"it\\\"s; fine\"})", "CREATE (:D)\n// a comment; with a semicolon\nMATCH (n) /* and; another */ RETURN n"),
+                statements(new CypherScript(script)));
+    }
+
+    @Test
+    public void testSkipsBlankAndCommentOnlyStatements() {
+        assertEquals(asList("CREATE ()", "MATCH (n) RETURN n"), statements(new CypherScript(";\n CREATE ();;\n // nothing\n;MATCH (n) RETURN n;\n// the end")));
+        assertTrue(statements(new CypherScript("  \n")).isEmpty());
+    }
+
+    @Test
+    public void testReaderScriptIsReadOnce() {
+        CypherScript script = new CypherScript(new StringReader("CREATE (); CREATE ()"));
+        assertEquals(2, statements(script).size());
+        try {
+            script.iterator();
+            fail("A reader can only be read once");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    private List<String> statements(CypherScript script) {
+        List<String> result = new ArrayList<>();
+        for (String statement : script) result.add(statement);
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CypherStatementTest {
+
+    @Test
+    public void testKeywordsInLiteralsAndNamesAreIgnored() {
+        assertTrue(CypherStatement.parse("MATCH (n {text:'delete me'}) RETURN n").isReadOnly());
+        assertTrue(CypherStatement.parse("MATCH (n) WHERE n.name = \"set \\\" create\" RETURN n.set, n.`create`").isReadOnly());
+        assertTrue(CypherStatement.parse("MATCH (n:Create)-[:DELETE]->(m {merge: 1}) RETURN m").isReadOnly());
+        assertTrue(CypherStatement.parse("MATCH (n) // create it\nRETURN n /* delete\n it */").isReadOnly());
+        assertTrue(CypherStatement.parse("MATCH (n) WHERE n.name = $set RETURN n").isReadOnly());
+        assertTrue(CypherStatement.parse("MATCH (n) RETURN n").isCypher());
+        assertFalse(CypherStatement.parse("[Person]->[Movie]").isCypher());
+    }
+
+    @Test
+    public void testClassifiesStatements() {
+        assertTrue(CypherStatement.parse("MATCH (n) DETACH DELETE n").isMutating());
+        assertTrue(CypherStatement.parse("match (n) set n:Foo").isMutating());
+        CypherStatement call = CypherStatement.parse("CALL db.labels()");
+        assertTrue(call.isProcedureCall());
+        assertFalse(call.isMutating());
+        assertFalse(CypherStatement.parse("call DB.Schema.Visualization() yield nodes return nodes").isMutating());
+        assertTrue(CypherStatement.parse("CALL db.createLabel('Person')").isMutating());
+        assertTrue(CypherStatement.parse("CALL apoc.create.node(['Person'], {})").isMutating());
+        assertTrue(CypherStatement.parse("CALL db.labels() YIELD label CREATE (:Label {name:label})").isMutating());
+
+        CypherStatement index = CypherStatement.parse("CREATE INDEX ON :Person(name)");
+        assertTrue(index.isSchema());
+        assertTrue(index.createsSchema());
+        CypherStatement drop = CypherStatement.parse("drop\n constraint on (p:Person) assert p.name is unique");
+        assertTrue(drop.isSchema());
+        assertFalse(drop.createsSchema());
+        assertFalse(CypherStatement.parse("CREATE (n:Index)").isSchema());
+
+        CypherStatement load = CypherStatement.parse("USING PERIODIC COMMIT 100 LOAD CSV FROM 'file:///x' AS l CREATE (:Line)");
+        assertTrue(load.isPeriodicCommit());
+        assertFalse(load.canProfile());
+        assertTrue(CypherStatement.parse("MATCH (n {periodic:true}) RETURN n.periodic").canProfile());
+        assertTrue(CypherStatement.parse("CYPHER 3.5 PROFILE MATCH (n) RETURN n").hasPlan());
+        assertFalse(CypherStatement.parse("MATCH (n) RETURN n AS profile").hasPlan());
+    }
+
+    @Test
+    public void testDescriptorIsCached() {
+        String query = "MATCH (n) RETURN count(n) AS cached" + System.nanoTime();
+        assertSame(CypherStatement.of(query), CypherStatement.of(query));
+    }
+}
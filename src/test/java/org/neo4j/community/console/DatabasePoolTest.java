@@ -0,0 +1,71 @@
+package org.neo4j.community.console;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DatabasePoolTest {
+
+    private DatabasePool pool = new DatabasePool(1, 2, 10);
+
+    @After
+    public void tearDown() throws Exception {
+        pool.stop();
+    }
+
+    @Test
+    public void testTakeFromFilledPool() throws Exception {
+        pool.refill();
+        assertEquals(1, pool.size());
+        Neo4jService service = pool.take();
+        assertNotNull(service);
+        assertTrue(service.doesOwnDatabase());
+        assertEquals(1, service.cypherQuery("return 1 as one", null).getRowCount());
+        assertNull(pool.take());
+        service.stop();
+
+        Map<String, Object> metrics = pool.getMetrics();
+        assertEquals(1L, metrics.get("hits"));
+        assertEquals(1L, metrics.get("misses"));
+        assertEquals(1L, metrics.get("refills"));
+    }
+
+    @Test
+    public void testGrowsOnMissesUpToMax() throws Exception {
+        assertNull(pool.take());
+        assertNull(pool.take());
+        assertNull(pool.take());
+        pool.refill();
+        assertEquals(2, pool.getMetrics().get("target"));
+        pool.refill();
+        assertEquals(2, pool.size());
+        pool.refill();
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testRefillsInBackground() throws Exception {
+        pool.start();
+        long timeout = System.currentTimeMillis() + 30000;
+        while (pool.size() < 1 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testPausedPoolDoesNotRefill() throws Exception {
+        pool.refill();
+        pool.pause();
+        pool.drain();
+        assertEquals(0, pool.size());
+        pool.refill();
+        assertEquals(0, pool.size());
+        pool.resume();
+        pool.refill();
+        assertEquals(1, pool.size());
+    }
+}
@@ -0,0 +1,104 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MemoryGovernorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private final Map<String, Neo4jService> sessions = new ConcurrentHashMap<>();
+    private final List<String> evicted = new ArrayList<>();
+
+    private int idleDatabases;
+    private long sharedBytes;
+
+    private MemoryGovernor governor(long budget) {
+        return new MemoryGovernor(budget, sessions, () -> idleDatabases, () -> sharedBytes, (id, service) -> {
+            if (!sessions.remove(id, service)) return false;
+            evicted.add(id);
+            return true;
+        });
+    }
+
+    private Neo4jService session(String id, long idleMillis, long storeBytes) {
+        Neo4jService service = mock(Neo4jService.class);
+        when(service.doesOwnDatabase()).thenReturn(true);
+        when(service.getLastAccess()).thenReturn(System.currentTimeMillis() - idleMillis);
+        when(service.getStoreBytes()).thenReturn(storeBytes);
+        sessions.put(id, service);
+        return service;
+    }
+
+    @Test
+    public void testEstimate() throws Exception {
+        Neo4jService service = session("a", 0, MB);
+        assertEquals(MemoryGovernor.SESSION_OVERHEAD + MB, MemoryGovernor.estimate(service));
+        assertEquals(MemoryGovernor.SESSION_OVERHEAD + MB, governor(Long.MAX_VALUE).used());
+    }
+
+    @Test
+    public void testDatabasesAndImagesWithoutSessionCount() throws Exception {
+        session("a", 0, MB);
+        idleDatabases = 3;
+        sharedBytes = 16 * MB;
+        assertEquals(4 * MemoryGovernor.SESSION_OVERHEAD + 17 * MB, governor(Long.MAX_VALUE).used());
+    }
+
+    @Test(expected = SessionRejectedException.class)
+    public void testRejectWhenSparesAndImagesFillTheBudget() throws Exception {
+        idleDatabases = 2;
+        sharedBytes = MemoryGovernor.SESSION_OVERHEAD;
+        governor(3 * MemoryGovernor.SESSION_OVERHEAD + MB).admit();
+    }
+
+    @Test
+    public void testEstimatesAreReusedForAMoment() throws Exception {
+        Neo4jService service = session("a", 0, MB);
+        MemoryGovernor governor = governor(Long.MAX_VALUE);
+        assertEquals(MemoryGovernor.SESSION_OVERHEAD + MB, governor.used());
+        when(service.getStoreBytes()).thenReturn(2 * MB);
+        assertEquals(MemoryGovernor.SESSION_OVERHEAD + MB, governor.used());
+        Thread.sleep(MemoryGovernor.ESTIMATE_MILLIS + 10);
+        assertEquals(MemoryGovernor.SESSION_OVERHEAD + 2 * MB, governor.used());
+    }
+
+    @Test
+    public void testAdmitWithinBudget() throws Exception {
+        session("a", 0, MB);
+        governor(10 * MemoryGovernor.SESSION_OVERHEAD).admit();
+        assertTrue(evicted.isEmpty());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedIdleSessionFirst() throws Exception {
+        session("recent", MemoryGovernor.MIN_IDLE_MILLIS + 1000, 0);
+        session("oldest", MemoryGovernor.MIN_IDLE_MILLIS + 5000, 0);
+        session("active", 0, 0);
+        governor(3 * MemoryGovernor.SESSION_OVERHEAD).admit();
+        assertEquals(Arrays.asList("oldest"), evicted);
+        assertEquals(2, sessions.size());
+    }
+
+    @Test(expected = SessionRejectedException.class)
+    public void testRejectWhenOnlyActiveSessions() throws Exception {
+        session("a", 0, 0);
+        session("b", 0, 0);
+        governor(2 * MemoryGovernor.SESSION_OVERHEAD).admit();
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedUnderPressure() throws Exception {
+        session("a", 10, 0);
+        session("b", 20, 0);
+        MemoryGovernor governor = governor(Long.MAX_VALUE);
+        assertEquals(MemoryGovernor.SESSION_OVERHEAD, governor.evictLeastRecentlyUsed(1));
+        assertEquals(Arrays.asList("b"), evicted);
+    }
+}
@@ -0,0 +1,87 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.lang.management.MemoryUsage;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.neo4j.community.console.MemoryMonitor.Pressure.*;
+
+public class MemoryMonitorTest {
+
+    private final List<MemoryMonitor.Pressure> reactions = new ArrayList<>();
+    private final List<Long> excess = new ArrayList<>();
+    private final List<String> halts = new ArrayList<>();
+
+    private final MemoryMonitor monitor = new MemoryMonitor(null, (pressure, bytes) -> {
+        reactions.add(pressure);
+        excess.add(bytes);
+    }, Runnable::run) {
+        @Override
+        protected void halt(String message) {
+            halts.add(message);
+        }
+    };
+
+    @Test
+    public void testPressureTiers() throws Exception {
+        assertEquals(NORMAL, MemoryMonitor.Pressure.of(10));
+        assertEquals(PAUSE_POOL, MemoryMonitor.Pressure.of(PAUSE_POOL.percent));
+        assertEquals(EVICT_IDLE, MemoryMonitor.Pressure.of(EVICT_IDLE.percent + 1));
+        assertEquals(HALT, MemoryMonitor.Pressure.of(100));
+        assertTrue(HALT.atLeast(REFUSE_SESSIONS));
+        assertFalse(DROP_CACHES.atLeast(EVICT_IDLE));
+    }
+
+    @Test
+    public void testReactOnlyUnderPressure() throws Exception {
+        monitor.onCollection(10, 100);
+        assertTrue(reactions.isEmpty());
+        monitor.onCollection(EVICT_IDLE.percent + 5, 100);
+        assertEquals(Arrays.asList(EVICT_IDLE), reactions);
+        assertEquals(Arrays.asList(5L), excess);
+        monitor.onCollection(10, 100);
+        assertEquals(Arrays.asList(EVICT_IDLE, NORMAL), reactions);
+        assertEquals(NORMAL, monitor.getPressure());
+    }
+
+    @Test
+    public void testHaltOnlyIfReactionsDidNotHelp() throws Exception {
+        monitor.onCollection(99, 100);
+        assertEquals(Arrays.asList(HALT), reactions);
+        assertTrue(halts.isEmpty());
+        monitor.onCollection(99, 100);
+        assertEquals(1, halts.size());
+    }
+
+    @Test
+    public void testMinorCollectionsDontHalt() throws Exception {
+        assertTrue(MemoryMonitor.isMajor("end of major GC"));
+        assertFalse(MemoryMonitor.isMajor("end of minor GC"));
+        monitor.onGarbageCollection(false, new MemoryUsage(0, 99, 100, 100));
+        monitor.onGarbageCollection(false, new MemoryUsage(0, 99, 100, 100));
+        assertTrue(reactions.isEmpty());
+        monitor.onGarbageCollection(true, new MemoryUsage(0, 99, 100, 100));
+        monitor.onGarbageCollection(false, new MemoryUsage(0, 98, 100, 100));
+        monitor.onGarbageCollection(false, new MemoryUsage(0, 97, 100, 100));
+        assertEquals(Arrays.asList(HALT, HALT, HALT), reactions);
+        assertTrue(halts.isEmpty());
+        monitor.onGarbageCollection(true, new MemoryUsage(0, 99, 100, 100));
+        assertEquals(1, halts.size());
+    }
+
+    @Test
+    public void testMetricsFromGarbageCollections() throws Exception {
+        MemoryMonitor monitor = new MemoryMonitor((pressure, bytes) -> {}).start();
+        try {
+            System.gc();
+            Thread.sleep(200);
+            Map<String, Object> metrics = monitor.getMetrics();
+            assertNotNull(metrics.get("oldGen"));
+            assertTrue((Long) metrics.get("collections") > 0);
+        } finally {
+            monitor.stop();
+        }
+    }
+}
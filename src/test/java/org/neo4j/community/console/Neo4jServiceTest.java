@@ -7,12 +7,20 @@ import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.helpers.collection.Iterables;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class Neo4jServiceTest {
 
@@ -35,6 +43,367 @@ public class Neo4jServiceTest {
         }
     }
 
+    @Test
+    public void testRecycleOwnedDatabase() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            service.initCypherQuery("CREATE INDEX ON :Person(name)", null);
+            service.initCypherQuery("CREATE CONSTRAINT ON (p:Person) ASSERT p.id IS UNIQUE", null);
+            service.initCypherQuery("UNWIND range(1,100) AS id CREATE (:Person {id:id})-[:KNOWS]->()", null);
+            service.setVersion("3.5");
+            service.setInitialized();
+
+            assertTrue(service.recycle());
+
+            assertFalse(service.isInitialized());
+            assertNull(service.getVersion());
+            assertEquals(0L, service.cypherQuery("MATCH (n) RETURN count(*) AS c", null).getRows().iterator().next().get("c"));
+            try (Transaction tx = service.getGraphDatabase().beginTx()) {
+                assertFalse(service.getGraphDatabase().schema().getIndexes().iterator().hasNext());
+                assertFalse(service.getGraphDatabase().schema().getConstraints().iterator().hasNext());
+                tx.success();
+            }
+        } finally {
+            service.stop();
+        }
+        assertFalse(service.recycle());
+    }
+
+    @Test
+    public void testDontRecycleForeignDatabase() throws Exception {
+        assertFalse(neo4jService.recycle());
+    }
+
+    @Test
+    public void testClearInBatches() throws Exception {
+        neo4jService.initCypherQuery("UNWIND range(1,{count}) AS id CREATE (:Person {id:id})", MapUtil.map("count", Neo4jService.CLEAR_BATCH_SIZE + 5));
+        neo4jService.clear();
+        assertEquals(0L, neo4jService.cypherQuery("MATCH (n) RETURN count(*) AS c", null).getRows().iterator().next().get("c"));
+    }
+
+    @Test
+    public void testMemoryFootprint() throws Throwable {
+        assertEquals(0, neo4jService.getStoreBytes());
+        Neo4jService service = new Neo4jService();
+        try {
+            long empty = service.getStoreBytes();
+            assertTrue(empty > 0);
+            service.cypherQuery("UNWIND range(1,1000) AS id CREATE (:Person {id:id, name:'Person '+id})", null);
+            assertTrue(service.getStoreBytes() > empty);
+            service.cypherQuery("MATCH (n) RETURN n.name LIMIT 100", null);
+            assertTrue(service.getLastResultBytes() > 100 * 2);
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testHandOverDatabase() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        Neo4jService fresh = service.handOver();
+        try {
+            assertNull(service.getGraphDatabase());
+            assertEquals(1, fresh.shared(() -> fresh.cypherQuery("RETURN 1", null).getRowCount()).intValue());
+            try {
+                service.shared(() -> service.cypherQuery("RETURN 1", null));
+                fail("Should not run requests on a service that handed over its database");
+            } catch (IllegalStateException expected) {
+                // expected
+            }
+        } finally {
+            fresh.stop();
+        }
+    }
+
+    @Test
+    public void testPassivateAndRestore() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            service.initCypherQuery("CREATE INDEX ON :Person(name)", null);
+            service.initCypherQuery("CREATE CONSTRAINT ON (p:Person) ASSERT p.id IS UNIQUE", null);
+            service.initCypherQuery("UNWIND range(1,10) AS id CREATE (:Person {id:id, name:'p'+id, tags:['a','b']})-[:KNOWS {since:id}]->(:Person)", null);
+            service.setVersion("3.5");
+            service.setInitialized();
+
+            AtomicInteger restored = new AtomicInteger();
+            assertTrue(service.getGate().exclusive(() -> service.passivate(Neo4jServiceTest::newService, restored::incrementAndGet)));
+
+            assertTrue(service.isPassivated());
+            assertNull(service.getGraphDatabase());
+            assertEquals(0, MemoryGovernor.estimate(service));
+            assertEquals(1, service.shared(() -> service.cypherQuery("MATCH (p:Person {id:3})-[r:KNOWS {since:3}]->() WHERE p.tags = ['a','b'] RETURN p", null).getRowCount()).intValue());
+            assertFalse(service.isPassivated());
+            assertEquals(1, restored.get());
+            assertTrue(service.isInitialized());
+            assertEquals("3.5", service.getVersion());
+            assertEquals(20L, service.cypherQuery("MATCH (n) RETURN count(*) AS c", null).getRows().iterator().next().get("c"));
+            try (Transaction tx = service.getGraphDatabase().beginTx()) {
+                assertEquals(1, Iterables.count(service.getGraphDatabase().schema().getConstraints()));
+                assertEquals(2, Iterables.count(service.getGraphDatabase().schema().getIndexes()));
+                tx.success();
+            }
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testStopPassivatedServiceDeletesSnapshot() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        service.initCypherQuery("CREATE (:Person)", null);
+        assertTrue(service.getGate().exclusive(() -> service.passivate(Neo4jServiceTest::newService, () -> {})));
+        int snapshots = SessionSnapshot.DIRECTORY.list().length;
+        service.stop();
+        assertEquals(snapshots - 1, SessionSnapshot.DIRECTORY.list().length);
+        assertFalse(service.isPassivated());
+    }
+
+    @Test
+    public void testRebuildReplaysJournalIntoFreshDatabase() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            service.initCypherQuery("CREATE INDEX ON :Person(name)", null);
+            service.initCypherQuery("CREATE (:Person {name:$name})", MapUtil.map("name", "Alice"));
+            service.setVersion("3.5");
+            service.cypherQuery("MATCH (p:Person) SET p.age = 42", null);
+            service.cypherQuery("MATCH (n) RETURN n", null);
+            service.setInitialized();
+            assertEquals(3, service.getJournal().size());
+
+            service.getGraphDatabase().shutdown();
+            assertFalse(service.isHealthy());
+            assertTrue(service.getGate().exclusive(() -> service.rebuild(Neo4jServiceTest::newService)));
+
+            assertTrue(service.isHealthy());
+            assertTrue(service.isInitialized());
+            assertEquals(42L, service.cypherQuery("MATCH (p:Person {name:'Alice'}) RETURN p.age AS age", null).getRows().iterator().next().get("age"));
+            try (Transaction tx = service.getGraphDatabase().beginTx()) {
+                assertEquals(1, Iterables.count(service.getGraphDatabase().schema().getIndexes()));
+                tx.success();
+            }
+            service.clear();
+            assertEquals(1, service.getJournal().size());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testExplainedStatementsAreNotJournaled() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            service.cypherQuery("CREATE (:Planned)", null, PlanMode.EXPLAIN);
+            service.cypherQuery("EXPLAIN CREATE (:Planned)", null);
+            service.cypherQuery("CREATE (:Profiled)", null, PlanMode.PROFILE);
+            service.cypherQuery("PROFILE CREATE (:Profiled)", null, PlanMode.EXPLAIN);
+            assertEquals(2, service.getJournal().size());
+            assertEquals(0, service.cypherQuery("MATCH (n:Planned) RETURN n", null).getRowCount());
+            assertEquals(2, service.cypherQuery("MATCH (n:Profiled) RETURN n", null).getRowCount());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testIncompleteJournalCantBeReplayed() throws Throwable {
+        SessionJournal journal = new SessionJournal(2);
+        journal.record("CREATE ()", null, null);
+        journal.record("CREATE ()", null, null);
+        assertTrue(journal.isComplete());
+        journal.record("CREATE ()", null, null);
+        assertFalse(journal.isComplete());
+        assertEquals(2, journal.size());
+    }
+
+    @Test
+    public void testParkedJournalIsReplayedInOneTransaction() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        Neo4jService restored = new Neo4jService();
+        try {
+            service.initCypherQuery("CREATE CONSTRAINT ON (p:Person) ASSERT p.id IS UNIQUE", null);
+            service.setVersion("3.5");
+            service.cypherQuery("UNWIND range(1,$count) AS id CREATE (:Person {id:id})", MapUtil.map("count", 100L));
+            service.cypherQuery("MATCH (a:Person {id:1}),(b:Person {id:2}) CREATE (a)-[:KNOWS]->(b)", null);
+            SessionJournal.park("journal-test", service);
+            assertNull(SessionJournal.unpark("other-session"));
+            SessionJournal journal = SessionJournal.unpark("journal-test");
+            assertEquals(3, journal.size());
+            assertNull(SessionJournal.unpark("journal-test"));
+
+            final long[] commits = {0};
+            restored.getGraphDatabase().registerTransactionEventHandler(new TransactionEventHandler.Adapter<Object>() {
+                @Override
+                public void afterCommit(TransactionData data, Object state) {
+                    commits[0]++;
+                }
+            });
+            restored.getGate().exclusive(() -> {
+                restored.restore(journal);
+                return null;
+            });
+            assertEquals(1, commits[0]);
+            assertEquals("3.5", restored.getVersion());
+            assertTrue(restored.isInitialized());
+            assertEquals(1, restored.cypherQuery("MATCH (:Person {id:1})-[:KNOWS]->(:Person {id:2}) RETURN 1", null).getRowCount());
+            assertEquals(3, restored.getJournal().size());
+        } finally {
+            service.stop();
+            restored.stop();
+        }
+    }
+
+    @Test
+    public void testInitScriptGroupsCreatesInOneTransaction() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            final long[] commits = {0};
+            service.getGraphDatabase().registerTransactionEventHandler(new TransactionEventHandler.Adapter<Object>() {
+                @Override
+                public void afterCommit(TransactionData data, Object state) {
+                    commits[0]++;
+                }
+            });
+            service.initCypherQueries(new CypherScript("CREATE INDEX ON :Person(name);\n" +
+                    "CREATE (:Person {name:'A;B'});\nCREATE (:Person {name:'C'});\nCREATE (:Person {name:'D'}) RETURN 1;\n" +
+                    "MATCH (a:Person {name:'C'}),(b:Person {name:'D'}) CREATE (a)-[:KNOWS]->(b);\nCREATE (:Person {name:'E'})"), null);
+            // the three creates, the match and the last create, schema changes don't notify the handlers
+            assertEquals(3, commits[0]);
+            assertEquals(1, service.cypherQuery("MATCH (:Person {name:'A;B'}) MATCH (:Person {name:'C'})-[:KNOWS]->(:Person {name:'D'}) RETURN 1", null).getRowCount());
+            assertEquals(6, service.getJournal().size());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testBatchRunsInOneTransaction() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            final long[] commits = {0};
+            service.getGraphDatabase().registerTransactionEventHandler(new TransactionEventHandler.Adapter<Object>() {
+                @Override
+                public void afterCommit(TransactionData data, Object state) {
+                    commits[0]++;
+                }
+            });
+            List<Map<String, Object>> results = new ArrayList<>();
+            service.batchQuery(CypherBatch.fromMaps(Arrays.asList(
+                    MapUtil.map("statement", "CREATE (:Person {name:$name})", "parameters", MapUtil.map("name", "Alice")),
+                    MapUtil.map("statement", "CREATE (:Person {name:$name})", "parameters", MapUtil.map("name", "Bob")),
+                    MapUtil.map("statement", "MATCH (n:Person) RETURN n.name AS name ORDER BY name")), null, true), results);
+            assertEquals(1, commits[0]);
+            assertEquals(3, results.size());
+            assertEquals(1, ((Map) results.get(0).get("stats")).get("nodesCreated"));
+            assertNull(results.get(0).get("json"));
+            assertEquals(Arrays.asList(MapUtil.map("name", "Alice"), MapUtil.map("name", "Bob")), results.get(2).get("json"));
+            assertEquals(2, service.getJournal().size());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testFailedBatchRollsBackItsTransaction() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            String script = "CREATE (:Person {name:'Alice'});\nRETURN 1/0;\nCREATE (:Person {name:'Bob'})";
+            List<Map<String, Object>> results = new ArrayList<>();
+            try {
+                service.batchQuery(CypherBatch.fromScript(script, null, true), results);
+                fail("The batch should fail");
+            } catch (RuntimeException expected) {
+                assertEquals(1, results.size());
+            }
+            assertEquals(0, service.cypherQuery("MATCH (n:Person) RETURN n", null).getRowCount());
+            assertEquals(0, service.getJournal().size());
+
+            results.clear();
+            try {
+                service.batchQuery(CypherBatch.fromScript(script, null, false), results);
+                fail("The batch should fail");
+            } catch (RuntimeException expected) {
+                assertEquals(1, results.size());
+            }
+            assertEquals(1, service.cypherQuery("MATCH (n:Person) RETURN n", null).getRowCount());
+            assertEquals(1, service.getJournal().size());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testReadResultsAreCachedUntilTheGraphChanges() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            service.cypherQuery("CREATE (:Person {name:'Alice'})", null);
+            String query = "MATCH (n:Person) RETURN n.name AS name";
+            CypherQueryExecutor.CypherResult result = service.cypherQuery(query, null);
+            assertSame(result, service.cypherQuery(" MATCH (n:Person)\n  RETURN n.name AS name;", null));
+            assertNotSame(result, service.cypherQuery(query, MapUtil.map("name", "Bob")));
+            assertNotSame(service.cypherQuery("RETURN rand() AS r", null), service.cypherQuery("RETURN rand() AS r", null));
+
+            service.cypherQuery("CREATE (:Person {name:'Bob'})", null);
+            CypherQueryExecutor.CypherResult changed = service.cypherQuery(query, null);
+            assertNotSame(result, changed);
+            assertEquals(2, changed.getRowCount());
+            assertSame(changed, service.cypherQuery(query, null));
+
+            try (Transaction tx = service.getGraphDatabase().beginTx()) {
+                service.getGraphDatabase().createNode();
+                tx.success();
+            }
+            assertNotSame(changed, service.cypherQuery(query, null));
+
+            assertTrue(service.getCachedResultBytes() > 0);
+            service.clearResultCache();
+            assertEquals(0, service.getCachedResultBytes());
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testResultIsRenderedLazilyOutsideOfTheTransaction() throws Throwable {
+        Neo4jService service = new Neo4jService();
+        try {
+            CypherQueryExecutor.CypherResult result = service.cypherQuery("CREATE (n:Person {name:'Alice'}) RETURN n", null);
+            Map json = result.getJson().get(0);
+            assertEquals("Alice", ((Map) json.get("n")).get("name"));
+            assertSame(result.getJson(), result.getJson());
+            assertTrue(result.getText().contains("Alice"));
+            assertSame(result.getText(), result.getText());
+            assertEquals(1, result.getQueryStatistics().get("nodesCreated"));
+        } finally {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testJournalFileAndExportRoundTrip() throws Exception {
+        SessionJournal journal = new SessionJournal();
+        journal.record("CREATE (:Person {name:$name})", "3.5", MapUtil.map("name", "Alice"));
+        File file = File.createTempFile("session", ".journal.gz");
+        try {
+            journal.write(file);
+            SessionJournal read = SessionJournal.read(file);
+            assertEquals(journal.toMaps(), read.toMaps());
+            assertTrue(read.isComplete());
+        } finally {
+            file.delete();
+        }
+        SessionJournal imported = SessionJournal.fromMaps(journal.toMaps(), "3.5");
+        assertEquals(journal.toMaps(), imported.toMaps());
+        assertEquals("3.5", imported.getVersion());
+    }
+
+    private static Neo4jService newService() {
+        try {
+            return new Neo4jService();
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
     @After
     public void tearDown() throws Exception {
         neo4jService.stop();
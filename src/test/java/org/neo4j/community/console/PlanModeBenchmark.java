@@ -0,0 +1,54 @@
+package org.neo4j.community.console;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+/**
+ * Compares the latency of console queries run plainly, with EXPLAIN and with PROFILE, which used to be the default.
+ * <p>
+ * {@code java -cp target/classes:target/test-classes:... org.neo4j.community.console.PlanModeBenchmark [nodes] [runs]}
+ */
+public class PlanModeBenchmark {
+
+    private static final String[] QUERIES = {
+            "MATCH (n:Person) WHERE n.id % 10 = 0 RETURN n.name",
+            "MATCH (a:Person)-[:KNOWS]->(b)-[:KNOWS]->(c) RETURN count(*)",
+            "MATCH (n:Person {id:$id}) RETURN n"
+    };
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            CypherQueryExecutor executor = new CypherQueryExecutor(db);
+            executor.cypherQuery("UNWIND range(1,$nodes) AS id CREATE (:Person {id:id, name:'Person '+id})", null, map("nodes", nodes));
+            executor.cypherQuery("MATCH (a:Person),(b:Person) WHERE b.id = (a.id * 7) % $nodes CREATE (a)-[:KNOWS]->(b)", null, map("nodes", nodes));
+            System.out.printf("%d nodes, %d runs per query and mode%n", nodes, runs);
+            for (String query : QUERIES) {
+                System.out.println(query);
+                for (PlanMode mode : PlanMode.values()) {
+                    run(executor, query, mode, runs / 10); // warmup
+                    long nanos = run(executor, query, mode, runs);
+                    System.out.printf("  %-8s %8.3f ms%n", mode, nanos / (double) runs / TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static long run(CypherQueryExecutor executor, String query, PlanMode mode, int runs) {
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            CypherQueryExecutor.CypherResult result = executor.cypherQuery(query, null, map("id", i), mode);
+            result.getJson();
+            if (result.hasPlan()) result.getPlanTree();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,109 @@
+package org.neo4j.community.console;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class QueryCancellationTest {
+
+    // termination is only noticed when the query reads the graph, so it scans the nodes over and over
+    private static final String SLOW_QUERY = "MATCH (a),(b),(c) WHERE a <> c RETURN count(*)";
+
+    private GraphDatabaseService gdb;
+    private CypherQueryExecutor executor;
+
+    @Before
+    public void setUp() {
+        gdb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        executor = new CypherQueryExecutor(gdb);
+        executor.cypherQuery("UNWIND range(1,500) AS i CREATE ()", null);
+    }
+
+    @After
+    public void tearDown() {
+        gdb.shutdown();
+    }
+
+    @Test
+    public void testTimeoutIsCappedByServer() {
+        assertEquals(QueryCancellation.MAX_TIMEOUT_MILLIS, QueryCancellation.timeout(null));
+        assertEquals(QueryCancellation.MAX_TIMEOUT_MILLIS, QueryCancellation.timeout("nonsense"));
+        assertEquals(QueryCancellation.MAX_TIMEOUT_MILLIS, QueryCancellation.timeout(String.valueOf(QueryCancellation.MAX_TIMEOUT_MILLIS * 10)));
+        assertEquals(100, QueryCancellation.timeout("100"));
+    }
+
+    @Test
+    public void testQueryIsTerminatedAfterTimeout() {
+        QueryCancellation cancellation = QueryCancellation.begin("timeout", 300, () -> true);
+        try {
+            long start = System.currentTimeMillis();
+            assertCancelled("took longer than 300 ms");
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            cancellation.end();
+        }
+        assertEquals(1, executor.cypherQuery("RETURN 1", null).getRowCount());
+    }
+
+    @Test
+    public void testQueryIsTerminatedWhenClientDisconnects() {
+        long disconnectAt = System.currentTimeMillis() + 200;
+        QueryCancellation cancellation = QueryCancellation.begin("disconnect", 60000, () -> System.currentTimeMillis() < disconnectAt);
+        try {
+            assertCancelled("client disconnected");
+        } finally {
+            cancellation.end();
+        }
+    }
+
+    @Test
+    public void testSessionQueriesAreCancelled() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> running = pool.submit(() -> {
+            QueryCancellation cancellation = QueryCancellation.begin("cancel", 60000, () -> true);
+            started.countDown();
+            try {
+                executor.cypherQuery(SLOW_QUERY, null);
+                return "finished";
+            } catch (QueryCancelledException e) {
+                return e.getMessage();
+            } finally {
+                cancellation.end();
+            }
+        });
+        try {
+            started.await();
+            Thread.sleep(200);
+            assertEquals(0, QueryCancellation.cancel("other"));
+            assertEquals(1, QueryCancellation.cancel("cancel"));
+            assertEquals("The query was cancelled, it was cancelled", running.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelTokenIsBoundToItsSession() {
+        String token = QueryCancellation.token("session");
+        assertTrue(QueryCancellation.isToken("session", token));
+        assertFalse(QueryCancellation.isToken("other", token));
+        assertFalse(QueryCancellation.isToken("session", null));
+        assertFalse(QueryCancellation.isToken(null, token));
+    }
+
+    private void assertCancelled(String reason) {
+        try {
+            executor.cypherQuery(SLOW_QUERY, null);
+            fail("Query should have been cancelled");
+        } catch (QueryCancelledException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(reason));
+        }
+    }
+}
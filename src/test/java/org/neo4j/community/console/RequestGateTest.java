@@ -0,0 +1,70 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestGateTest {
+
+    private final RequestGate gate = new RequestGate();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Test
+    public void testSharedRequestsRunInParallel() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        Future<Boolean> first = executor.submit(() -> gate.shared(() -> await(bothRunning)));
+        Future<Boolean> second = executor.submit(() -> gate.shared(() -> await(bothRunning)));
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExclusiveRequestWaitsForSharedOnes() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+        AtomicInteger order = new AtomicInteger();
+        Future<Integer> read = executor.submit(() -> gate.shared(() -> {
+            reading.countDown();
+            try {
+                finishRead.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return order.incrementAndGet();
+        }));
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        Future<Integer> write = executor.submit(() -> gate.exclusive(order::incrementAndGet));
+        long timeout = System.currentTimeMillis() + 5000;
+        while (gate.getQueueLength() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, gate.getQueueLength());
+        finishRead.countDown();
+        assertEquals(1, (int) read.get(5, TimeUnit.SECONDS));
+        assertEquals(2, (int) write.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, gate.getMetrics().get("exclusive"));
+        assertEquals(1, gate.getMetrics().get("maxQueued"));
+    }
+
+    @Test
+    public void testSharedWithinExclusive() throws Exception {
+        assertEquals("ok", gate.exclusive(() -> gate.shared(() -> "ok")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoExclusiveWithinShared() throws Exception {
+        gate.shared(() -> gate.exclusive(() -> "fails"));
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        latch.countDown();
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
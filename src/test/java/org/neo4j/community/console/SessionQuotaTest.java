@@ -0,0 +1,142 @@
+package org.neo4j.community.console;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SessionQuotaTest {
+
+    private GraphDatabaseService gdb;
+    private SessionQuota quota;
+    private CypherQueryExecutor executor;
+
+    @Before
+    public void setUp() {
+        gdb = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        SessionQuota.install(gdb);
+        quota = new SessionQuota(1000, 1000, 1000, 50, 60000, 60000);
+        executor = new CypherQueryExecutor(gdb, null, quota);
+    }
+
+    @After
+    public void tearDown() {
+        gdb.shutdown();
+    }
+
+    @Test
+    public void testNodeQuotaIsCheckedOnCommit() {
+        executor.cypherQuery("UNWIND range(1,600) AS i CREATE ()", null);
+        assertExceeded("UNWIND range(1,600) AS i CREATE ()");
+        assertEquals(600L, count("MATCH (n) RETURN count(*) AS c"));
+        assertEquals(600L, quota.getUsage().get("nodes"));
+        executor.cypherQuery("MATCH (n) WITH n LIMIT 100 DELETE n", null);
+        executor.cypherQuery("UNWIND range(1,500) AS i CREATE ()", null);
+        assertEquals(1000L, quota.getUsage().get("nodes"));
+    }
+
+    // cypher runs the whole create before it returns, the node ids it takes stop it long before the commit
+    @Test
+    public void testLargeCreateFailsOnItsNodeQuotaWhileRunning() {
+        long start = System.currentTimeMillis();
+        try {
+            executor.cypherQuery("UNWIND range(1,10000000) AS i CREATE ()", null);
+            fail("Quota should be exceeded");
+        } catch (QuotaExceededException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().endsWith("1000 nodes"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0L, count("MATCH (n) RETURN count(*) AS c"));
+        executor.cypherQuery("UNWIND range(1,500) AS i CREATE ()", null);
+        assertEquals(500L, quota.getUsage().get("nodes"));
+    }
+
+    @Test
+    public void testLargeCreateIsTerminatedByItsCpuTime() {
+        CypherQueryExecutor limited = new CypherQueryExecutor(gdb, null, new SessionQuota(Long.MAX_VALUE, 1000, 1000, 50, 200, 3600000));
+        long start = System.currentTimeMillis();
+        try {
+            limited.cypherQuery("UNWIND range(1,100000000) AS i CREATE ()", null);
+            fail("Quota should be exceeded");
+        } catch (QuotaExceededException expected) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0L, count("MATCH (n) RETURN count(*) AS c"));
+    }
+
+    @Test
+    public void testRowAndPropertyQuota() {
+        assertEquals(50, executor.cypherQuery("UNWIND range(1,50) AS i RETURN i", null).getRowCount());
+        assertExceeded("UNWIND range(1,51) AS i RETURN i");
+        executor.cypherQuery("CREATE ({text:reduce(s='', i IN range(1,400) | s + 'x')})", null);
+        assertEquals(800L, quota.getUsage().get("propertyBytes"));
+        assertExceeded("CREATE ({text:reduce(s='', i IN range(1,200) | s + 'x')})");
+        executor.cypherQuery("MATCH (n) REMOVE n.text", null);
+        assertEquals(0L, quota.getUsage().get("propertyBytes"));
+    }
+
+    @Test
+    public void testQuotaIsCheckedForQueriesInOneTransaction() {
+        executor.inTransaction(() -> {
+            executor.cypherQuery("UNWIND range(1,400) AS i CREATE ()", null);
+            executor.cypherQuery("UNWIND range(1,400) AS i CREATE ()", null);
+            return null;
+        });
+        assertEquals(800L, quota.getUsage().get("nodes"));
+        try {
+            executor.inTransaction(() -> {
+                executor.cypherQuery("UNWIND range(1,150) AS i CREATE ()", null);
+                executor.cypherQuery("UNWIND range(1,150) AS i CREATE ()", null);
+                return null;
+            });
+            fail("Quota should be exceeded by the transaction");
+        } catch (QuotaExceededException expected) {
+            // expected
+        }
+        assertEquals(800L, count("MATCH (n) RETURN count(*) AS c"));
+    }
+
+    @Test
+    public void testCpuTimeIsCumulative() {
+        executor.cypherQuery("UNWIND range(1,500) AS i CREATE ()", null);
+        quota = new SessionQuota(1000, 1000, 1000, 50, 200, 3600000);
+        executor = new CypherQueryExecutor(gdb, null, quota);
+        assertExceeded("MATCH (a),(b),(c) WHERE a <> c RETURN count(*)");
+        assertExceeded("RETURN 1");
+        Map<String, Object> usage = quota.getUsage();
+        assertTrue(usage.toString(), (Long) usage.get("cpuMillis") >= 200);
+        assertEquals(2L, usage.get("exceeded"));
+    }
+
+    @Test
+    public void testCpuBudgetRefills() throws InterruptedException {
+        executor.cypherQuery("UNWIND range(1,500) AS i CREATE ()", null);
+        quota = new SessionQuota(1000, 1000, 1000, 50, 200, 1000);
+        executor = new CypherQueryExecutor(gdb, null, quota);
+        assertExceeded("MATCH (a),(b),(c) WHERE a <> c RETURN count(*)");
+        quota.resetData();
+        assertTrue((Long) quota.getUsage().get("cpuMillis") > 0);
+        Thread.sleep(1500);
+        assertEquals(0L, quota.getUsage().get("cpuMillis"));
+        assertEquals(1L, count("RETURN 1 AS c"));
+    }
+
+    private long count(String query) {
+        return (Long) executor.cypherQuery(query, null).getRows().iterator().next().get("c");
+    }
+
+    private void assertExceeded(String query) {
+        try {
+            executor.cypherQuery(query, null);
+            fail("Quota should be exceeded by " + query);
+        } catch (QuotaExceededException expected) {
+            // expected
+        }
+    }
+}
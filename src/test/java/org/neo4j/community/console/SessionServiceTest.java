@@ -7,6 +7,10 @@ import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -48,6 +52,47 @@ public class SessionServiceTest {
         database.shutdown();
     }
 
+    @Test
+    public void testOnlyUnrecoverableErrorsRestart() throws Exception {
+        final List<String> restarts = new ArrayList<>();
+        RestartHook previous = Halt.setRestartHook(restarts::add);
+        try {
+            SessionService.uncaughtException(Thread.currentThread(), new IllegalStateException("one request failed"));
+            assertTrue(restarts.isEmpty());
+            SessionService.uncaughtException(Thread.currentThread(), new InternalError("broken"));
+            assertEquals(1, restarts.size());
+        } finally {
+            Halt.setRestartHook(previous);
+        }
+    }
+
+    @Test
+    public void testExpiryDoesNotWaitForRunningRequests() throws Exception {
+        final GraphDatabaseService database = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        SessionService.setDatabaseInfo(DatabaseInfo.expose(database));
+        final Neo4jService service = serviceForId(SESSION_ID, true);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Thread request = new Thread(() -> service.getGate().exclusive(() -> {
+            running.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        request.start();
+        running.await();
+        long start = System.currentTimeMillis();
+        SessionService.expire(new AbstractMap.SimpleImmutableEntry<>(SESSION_ID, service));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        noServiceForId(SESSION_ID, false);
+        finish.countDown();
+        request.join();
+        database.shutdown();
+    }
+
     @Test
     public void testGetServiceFromRequestIfNotAvailable() throws Exception {
         noServiceForId(SESSION_ID, false);
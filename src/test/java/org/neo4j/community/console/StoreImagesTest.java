@@ -0,0 +1,88 @@
+package org.neo4j.community.console;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class StoreImagesTest {
+
+    private static final String INIT = "create index on :Crew(name);\ncreate (:Crew {name:'Neo'})-[:KNOWS]->(:Crew {name:'Trinity'})";
+    private static final List<String> STATEMENTS = asList(INIT.split(";\n"));
+
+    private final StoreImages images = new StoreImages(true);
+
+    @After
+    public void tearDown() throws Exception {
+        images.clear();
+    }
+
+    @Test
+    public void testKeyDependsOnInitAndVersion() throws Exception {
+        assertEquals(StoreImages.key(INIT, null), StoreImages.key(INIT, null));
+        assertFalse(StoreImages.key(INIT, null).equals(StoreImages.key(INIT, "3.5")));
+        assertFalse(StoreImages.key(INIT, null).equals(StoreImages.key(INIT + " ", null)));
+    }
+
+    @Test
+    public void testNoImageBeforeMinUses() throws Exception {
+        images.record(INIT, null, STATEMENTS, 10000);
+        assertNull(images.materialize(INIT, null));
+    }
+
+    @Test
+    public void testMaterializeFromImage() throws Exception {
+        buildImage(10000);
+        Neo4jService service = images.materialize(INIT, null);
+        assertNotNull(service);
+        try {
+            CypherQueryExecutor.CypherResult result = service.cypherQuery("match (n:Crew)-[:KNOWS]->(m) return n.name, m.name", null);
+            assertEquals(1, result.getRowCount());
+            assertEquals(1, service.cypherQuery("call db.indexes()", null).getRowCount());
+        } finally {
+            service.stop();
+        }
+        assertEquals(1L, images.getMetrics().get("starts"));
+    }
+
+    @Test
+    public void testReplayCheapScripts() throws Exception {
+        buildImage(0);
+        assertNull(images.materialize(INIT, null));
+        assertNull(images.materialize(INIT, "3.5"));
+    }
+
+    @Test
+    public void testUseSpareForPopularScripts() throws Exception {
+        buildImage(0);
+        for (int i = 0; i < StoreImages.SPARE_USES; i++) {
+            images.record(INIT, null, STATEMENTS, 0);
+        }
+        awaitMetric("spares", 1);
+        Neo4jService service = images.materialize(INIT, null);
+        assertNotNull(service);
+        service.stop();
+        assertEquals(1L, images.getMetrics().get("spareHits"));
+    }
+
+    private void buildImage(long replayMillis) throws InterruptedException {
+        for (int i = 0; i < StoreImages.MIN_USES; i++) {
+            images.record(INIT, null, STATEMENTS, replayMillis);
+        }
+        awaitMetric("images", 1);
+    }
+
+    private void awaitMetric(String name, long value) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < timeout) {
+            Map<String, Object> metrics = images.getMetrics();
+            if (((Number) metrics.get(name)).longValue() >= value) return;
+            Thread.sleep(10);
+        }
+        fail("Timed out waiting for " + name + " " + images.getMetrics());
+    }
+}
@@ -0,0 +1,146 @@
+package org.neo4j.community.console;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TenantIsolationTest {
+
+    private GraphDatabaseService gdb;
+    private Neo4jService alice;
+    private Neo4jService bob;
+
+    @Before
+    public void setUp() {
+        gdb = DatabaseInfo.shared(new TestGraphDatabaseFactory().newImpermanentDatabase()).getDatabase();
+        alice = new Neo4jService(gdb, TenantIsolation.newTenant());
+        bob = new Neo4jService(gdb, TenantIsolation.newTenant());
+        alice.cypherQuery("CREATE (:Person {name:'Alice'})-[:KNOWS]->(:Person {name:'Carol'})", null);
+    }
+
+    @After
+    public void tearDown() {
+        gdb.shutdown();
+    }
+
+    @Test
+    public void testReadsOnlyOwnData() {
+        assertEquals(0, bob.cypherQuery("MATCH (n) RETURN n", null).getRowCount());
+        assertEquals(0, bob.cypherQuery("MATCH p=()-->() RETURN p", null).getRowCount());
+        CypherQueryExecutor.CypherResult result = alice.cypherQuery("MATCH (n)-[r]->(m) RETURN n,r,m", null);
+        assertEquals(1, result.getRowCount());
+        @SuppressWarnings("unchecked") Map<String, Object> node = (Map<String, Object>) result.getJson().get(0).get("n");
+        assertEquals(Collections.singletonList("Person"), node.get("_labels"));
+    }
+
+    @Test
+    public void testMatchIsScoped() {
+        bob.cypherQuery("MATCH (n) SET n.name = 'Bob'", null);
+        bob.cypherQuery("MATCH (n) DETACH DELETE n", null);
+        assertEquals(2L, count(alice));
+        assertEquals(1, alice.cypherQuery("MATCH (n {name:'Alice'}) RETURN n", null).getRowCount());
+    }
+
+    @Test
+    public void testUnscopableStatementsAreRefused() {
+        assertViolation(bob, "CALL db.labels()");
+        assertViolation(bob, "CALL db.propertyKeys YIELD propertyKey RETURN propertyKey");
+        assertViolation(bob, "RETURN [(n)-->(m) | m.name] AS names");
+        assertViolation(bob, "UNWIND [()-[r]->() | r] AS r DELETE r");
+        assertViolation(bob, "MATCH (n) WHERE (n)<-[:KNOWS]-() RETURN n");
+        assertViolation(bob, "MATCH (n) RETURN size((n)--()) AS degree");
+        assertViolation(bob, "MATCH (n) CREATE (m {names:[(n)-->(x) | x.name]})");
+        assertViolation(bob, "START n=node(*) RETURN n.name");
+        assertEquals(1, alice.cypherQuery("MATCH (call)-[r]->(start) CREATE (call)-[:LIKES]->(start) RETURN call.name, (1)-(2) AS x", null).getRowCount());
+        assertEquals(1, alice.cypherQuery("MATCH p=shortestPath((a)-[*]-(b)) WHERE a <> b RETURN p LIMIT 1", null).getRowCount());
+    }
+
+    @Test
+    public void testCannotChangeDataOfOtherTenants() {
+        assertViolation(alice, "MATCH (n) SET n:Tenant_other");
+        assertEquals(1, alice.cypherQuery("MATCH (n {name:'Alice'})-->() RETURN n", null).getRowCount());
+        assertEquals(0L, count(bob));
+    }
+
+    @Test
+    public void testChangesOwnData() {
+        bob.cypherQuery("CREATE (:Person {name:'Bob'})-[:KNOWS]->(:Person {name:'Dave'})", null);
+        bob.cypherQuery("MATCH (n) SET n.age = 42", null);
+        bob.cypherQuery("MATCH ()-[r]->() DELETE r", null);
+        bob.cypherQuery("MATCH (n {name:'Dave'}) DELETE n", null);
+        assertEquals(1L, count(bob));
+        assertEquals(2L, count(alice));
+    }
+
+    @Test
+    public void testMergeDoesNotMatchOtherTenants() {
+        bob.cypherQuery("MERGE (a:Person {name:'Alice'}) MERGE (b:Person {name:'Bob'}) MERGE (a)-[:KNOWS]->(b)", null);
+        assertEquals(2L, count(bob));
+        assertEquals(2L, count(alice));
+    }
+
+    @Test
+    public void testScopesMatchAndMergePatterns() {
+        Label tenant = Label.label("Tenant_1");
+        assertEquals("MATCH (n:`Tenant_1`)-[:KNOWS]->(:Person:`Tenant_1` {name:'(x)'}) RETURN count(n)",
+                TenantIsolation.scope(tenant, "MATCH (n)-[:KNOWS]->(:Person {name:'(x)'}) RETURN count(n)"));
+        assertEquals("MATCH (a:`Tenant_1`) MERGE (a)-[:R]->(b:`Tenant_1`) ON MATCH SET b.seen = true",
+                TenantIsolation.scope(tenant, "MATCH (a) MERGE (a)-[:R]->(b) ON MATCH SET b.seen = true"));
+        assertEquals("MATCH p=shortestPath((a:`Tenant_1`)-[*]-(b:`Tenant_1`)) // (c)\nCREATE (c) WITH (c) AS c RETURN p",
+                TenantIsolation.scope(tenant, "MATCH p=shortestPath((a)-[*]-(b)) // (c)\nCREATE (c) WITH (c) AS c RETURN p"));
+    }
+
+    @Test
+    public void testSchemaStatementsAreRefused() {
+        assertViolation(bob, "CREATE INDEX ON :Person(name)");
+    }
+
+    @Test
+    public void testClearAndStopOnlyRemoveOwnData() {
+        bob.cypherQuery("CREATE (:Person {name:'Bob'})", null);
+        bob.clear();
+        assertEquals(0L, count(bob));
+        assertEquals(2L, count(alice));
+        bob.cypherQuery("CREATE (:Person {name:'Bob'})", null);
+        alice.stop();
+        assertEquals(1L, count(bob));
+        try (Transaction tx = gdb.beginTx()) {
+            assertEquals(1, gdb.getAllNodes().stream().count());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testGraphAndExportAreScoped() {
+        bob.cypherQuery("CREATE (:Person {name:'Bob'})", null);
+        SubGraph graph = alice.subGraph();
+        assertEquals(2, graph.getNodes().size());
+        assertEquals(1, graph.getRelationships().size());
+        String cypher = alice.exportToCypher();
+        assertFalse(cypher, cypher.contains(TenantIsolation.LABEL_PREFIX));
+        assertFalse(cypher, cypher.contains("Bob"));
+        assertTrue(cypher, cypher.contains("Carol"));
+    }
+
+    private long count(Neo4jService service) {
+        return service.cypherQuery("MATCH (n) RETURN n", null).getRowCount();
+    }
+
+    private void assertViolation(Neo4jService service, String query) {
+        try {
+            service.cypherQuery(query, null);
+            fail("Should not be allowed: " + query);
+        } catch (TenantIsolation.IsolationException expected) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.neo4j.community.console;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the platform thread pool with virtual threads for many concurrent slow sessions.
+ * Each request blocks for a while (like the tinyurl call or a client waiting on a slow query)
+ * and then does a short piece of database work behind the concurrency limiter.
+ * <p>
+ * Run with Java 21 to include virtual threads:
+ * {@code java -cp target/classes:target/test-classes:... org.neo4j.community.console.ThreadPoolBenchmark [clients] [seconds]}
+ */
+public class ThreadPoolBenchmark {
+
+    private static final long BLOCKING_MILLIS = 100;
+    private static final long WORK_MILLIS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        System.out.printf("%d concurrent clients, %d ms blocking + %d ms work per request, %d seconds%n", clients, BLOCKING_MILLIS, WORK_MILLIS, seconds);
+        run("platform", ThreadPools.platform(ThreadPools.MAX_THREADS), clients, seconds);
+        ThreadPool virtual = ThreadPools.virtual();
+        if (virtual == null) {
+            System.out.println("virtual threads not available on Java " + System.getProperty("java.version"));
+        } else {
+            run("virtual", virtual, clients, seconds);
+        }
+    }
+
+    private static void run(String name, ThreadPool threadPool, int clients, int seconds) throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(ConcurrencyLimiter.MAX_CONCURRENT, ConcurrencyLimiter.MAX_WAIT_MILLIS);
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        connector.setAcceptQueueSize(clients);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                try {
+                    Thread.sleep(BLOCKING_MILLIS);
+                    limiter.call(() -> {
+                        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WORK_MILLIS);
+                        while (System.nanoTime() < end) {
+                            Thread.yield();
+                        }
+                        return null;
+                    });
+                    response.setStatus(200);
+                } catch (Exception e) {
+                    response.setStatus(503);
+                }
+                response.getWriter().write("ok");
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + connector.getLocalPort() + "/");
+            measure(name, url, clients, TimeUnit.SECONDS.toMillis(1));
+            measure(name, url, clients, TimeUnit.SECONDS.toMillis(seconds)).print(name, seconds);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static Result measure(String name, URL url, int clients, long millis) throws Exception {
+        final Result result = new Result();
+        final long end = System.currentTimeMillis() + millis;
+        ThreadFactory threads = ThreadPools.virtualThreadFactory("client-");
+        ExecutorService executor = threads != null ? Executors.newFixedThreadPool(clients, threads) : Executors.newFixedThreadPool(clients);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> {
+                while (System.currentTimeMillis() < end) {
+                    long start = System.nanoTime();
+                    boolean ok = request(url);
+                    result.add(ok, (System.nanoTime() - start) / 1000);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return result;
+    }
+
+    private static boolean request(URL url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(30000);
+            connection.setReadTimeout(30000);
+            try (InputStream in = connection.getInputStream()) {
+                while (in.read() != -1) {
+                    // drain
+                }
+            }
+            return connection.getResponseCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Result {
+        private final Queue<Long> micros = new ConcurrentLinkedQueue<>();
+        private final AtomicLong errors = new AtomicLong();
+
+        void add(boolean ok, long latency) {
+            if (ok) micros.add(latency);
+            else errors.incrementAndGet();
+        }
+
+        void print(String name, int seconds) {
+            List<Long> sorted = new ArrayList<>(micros);
+            Collections.sort(sorted);
+            if (sorted.isEmpty()) {
+                System.out.printf("%-8s no successful requests, %d errors%n", name, errors.get());
+                return;
+            }
+            System.out.printf("%-8s %8.1f req/s  p50 %6d ms  p99 %6d ms  max %6d ms  errors %d%n", name,
+                    sorted.size() / (double) seconds, percentile(sorted, 50), percentile(sorted, 99), sorted.get(sorted.size() - 1) / 1000, errors.get());
+        }
+
+        private static long percentile(List<Long> sorted, int percent) {
+            return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percent / 100)) / 1000;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.neo4j.community.console;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    private final Map<String, Long> lastAccess = new ConcurrentHashMap<>();
+    private final List<String> expired = new ArrayList<>();
+    private final TimingWheel<String> wheel = new TimingWheel<>(10, 100, this::deadline, expired::add);
+
+    private long deadline(String item) {
+        Long access = lastAccess.get(item);
+        return access == null ? TimingWheel.CANCELLED : access + 100;
+    }
+
+    @Test
+    public void testExpireIdleItems() throws Exception {
+        long now = System.currentTimeMillis();
+        lastAccess.put("a", now);
+        wheel.schedule("a");
+        assertEquals(1, wheel.getScheduled());
+        wheel.advance(now + 50);
+        assertTrue(expired.isEmpty());
+        wheel.advance(now + 120);
+        assertEquals(asList("a"), expired);
+        assertEquals(0, wheel.getScheduled());
+        assertEquals(1, wheel.getExpired());
+    }
+
+    @Test
+    public void testTouchPostponesExpiry() throws Exception {
+        long now = System.currentTimeMillis();
+        lastAccess.put("a", now);
+        wheel.schedule("a");
+        lastAccess.put("a", now + 80);
+        wheel.advance(now + 120);
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.getScheduled());
+        wheel.advance(now + 200);
+        assertEquals(asList("a"), expired);
+    }
+
+    @Test
+    public void testCancelledItemsAreDropped() throws Exception {
+        long now = System.currentTimeMillis();
+        lastAccess.put("a", now);
+        lastAccess.put("b", now);
+        wheel.schedule("a");
+        wheel.schedule("b");
+        lastAccess.remove("a");
+        wheel.advance(now + 120);
+        assertEquals(asList("b"), expired);
+        assertEquals(0, wheel.getScheduled());
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneRevolution() throws Exception {
+        long now = System.currentTimeMillis();
+        lastAccess.put("a", now + 500);
+        wheel.schedule("a");
+        for (long time = now; time < now + 550; time += 10) {
+            wheel.advance(time);
+        }
+        assertTrue(expired.isEmpty());
+        wheel.advance(now + 620);
+        assertEquals(asList("a"), expired);
+    }
+
+    private static List<String> asList(String... items) {
+        return Arrays.asList(items);
+    }
+}
@@ -23,4 +23,16 @@ public class UtilTest {
         assertEquals("9", Util.toId(9));
         assertEquals("z", Util.toId(35));
     }
+
+    @Test
+    public void testSetting() throws Exception {
+        assertEquals(42L, Util.setting("console.test.unset", 42L));
+        System.setProperty("console.test.setting", "7");
+        assertEquals(7L, Util.setting("console.test.setting", 42L));
+        System.setProperty("console.test.setting", "seven");
+        assertEquals(42L, Util.setting("console.test.setting", 42L));
+        System.setProperty("console.test.setting", "true");
+        assertTrue(Util.setting("console.test.setting", false));
+        System.clearProperty("console.test.setting");
+    }
 }